@@ -0,0 +1,94 @@
+/**
+ * Copyright (C) 2014 Kno.e.sis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knoesis.lucene.indexer;
+
+import java.io.Reader;
+import java.util.zip.Deflater;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.document.AbstractField;
+import org.apache.lucene.document.CompressionTools;
+import org.apache.lucene.document.Field;
+
+/**
+ * A text field whose value is indexed (and term vectors stored) as usual, but
+ * stored in compressed binary form. The field holds plain text until 
+ * {@link #compress()} is called, so {@code Document.get()} and 
+ * {@code getValues()} still see its value in {@link DocumentTransformer}s. 
+ * It is compressed by {@link FieldDocFactory#compress(org.apache.lucene.document.Document)}
+ * on the transform threads, once the document leaves the transform stage 
+ * (which runs whenever a field is compressed), rather than on the 
+ * {@link Indexer} threads, and 
+ * {@link DocumentCodec} keeps the compressed bytes when documents are 
+ * spilled by a sorted build. 
+ * Stored values can be read back with {@link CompressedFields}.
+ */
+final class CompressedField extends AbstractField {
+    
+    private String text = "";
+
+    CompressedField(String name, Field.Index index, Field.TermVector tv) {
+        super(name, Field.Store.YES, index, tv);
+        setValue("");
+    }
+    
+    /**
+     * Sets the uncompressed value, which is compressed by a later call to 
+     * {@link #compress()}.
+     */
+    void setValue(String value) {
+        text = value;
+        isBinary = false;
+        fieldsData = value;
+        binaryOffset = 0;
+        binaryLength = 0;
+    }
+    
+    /**
+     * Compresses the value, unless it is already compressed.
+     */
+    void compress() {
+        if (!isBinary) {
+            setCompressedValue(CompressionTools.compressString(text, Deflater.BEST_SPEED), text);
+        }
+    }
+    
+    /**
+     * Sets the value from bytes which are already compressed, e.g. when a 
+     * spilled document is read back. The text is only needed if the field is
+     * indexed, and may otherwise be {@code null}.
+     */
+    void setCompressedValue(byte[] compressed, String value) {
+        text = value;
+        isBinary = true;
+        fieldsData = compressed;
+        binaryOffset = 0;
+        binaryLength = compressed.length;
+    }
+
+    public String stringValue() {
+        return text;
+    }
+
+    public Reader readerValue() {
+        return null;
+    }
+
+    public TokenStream tokenStreamValue() {
+        return null;
+    }
+    
+}
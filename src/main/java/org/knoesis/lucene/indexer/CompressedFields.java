@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) 2014 Kno.e.sis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knoesis.lucene.indexer;
+
+import java.util.zip.DataFormatException;
+import org.apache.lucene.document.CompressionTools;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Fieldable;
+
+/**
+ * Reads back the stored values of fields which were indexed with 
+ * {@code luceneindexer.field.<name>.compress = true}. Uncompressed (text) 
+ * values are returned as-is, so these methods can be used for any text field.
+ */
+public class CompressedFields {
+    
+    /**
+     * Returns the first stored value of the named field, decompressing it if 
+     * necessary, or {@code null} if the document has no such field.
+     * @param document a document retrieved from the index
+     * @param fieldName the name of the field
+     * @return the stored value
+     * @throws IllegalStateException if a binary value is not valid compressed text
+     */
+    public static String get(Document document, String fieldName) {
+        Fieldable field = document.getFieldable(fieldName);
+        return field != null ? valueOf(field) : null;
+    }
+    
+    /**
+     * Returns all stored values of the named field, decompressing them if 
+     * necessary.
+     * @param document a document retrieved from the index
+     * @param fieldName the name of the field
+     * @return the stored values (empty if there are none)
+     * @throws IllegalStateException if a binary value is not valid compressed text
+     */
+    public static String[] getValues(Document document, String fieldName) {
+        Fieldable[] fields = document.getFieldables(fieldName);
+        String[] values = new String[fields.length];
+        for (int i=0; i<fields.length; i++) {
+            values[i] = valueOf(fields[i]);
+        }
+        return values;
+    }
+    
+    private static String valueOf(Fieldable field) {
+        if (!field.isBinary()) {
+            return field.stringValue();
+        }
+        byte[] bytes = field.getBinaryValue();
+        if (field.getBinaryOffset() != 0 || field.getBinaryLength() != bytes.length) {
+            byte[] copy = new byte[field.getBinaryLength()];
+            System.arraycopy(bytes, field.getBinaryOffset(), copy, 0, copy.length);
+            bytes = copy;
+        }
+        try {
+            return CompressionTools.decompressString(bytes);
+        } catch (DataFormatException ex) {
+            throw new IllegalStateException("Stored value of field " + field.name() + " is not compressed text", ex);
+        }
+    }
+    
+    private CompressedFields() {}
+    
+}
@@ -27,17 +27,70 @@ interface Constant {
     static final String PROP_LUCENE_DIR = "luceneindexer.lucenedir";
     static final String PROP_CORPUS_READER_CLASS = "luceneindexer.corpusreaderclass";
     static final String PROP_INDEXER_CLASS = "luceneindexer.indexerclass";
+    static final String PROP_CORPUS_DIR = "luceneindexer.corpusdir";
     static final String PROP_INDEXER_THREADS = "luceneindexer.indexerthreads";
     static final String PROP_LUCENE_VERSION = "luceneindexer.version";
     static final String PROP_DOC_FIELD_CACHE_SIZE = "luceneindexer.docfieldcachesize";
     static final String PROP_FORCE_MERGE = "luceneindexer.forcemerge";
     static final String PROP_VERBOSE = "luceneindexer.verbose";
     
+    static final String PROP_TRANSFORMERS = "luceneindexer.transformers";
+    static final String PROP_TRANSFORMER_THREADS = "luceneindexer.transformerthreads";
+    static final String PROP_TRANSFORM_BUFFER_SIZE = "luceneindexer.transformbuffersize";
+    
+    static final String PROP_DEDUP_FIELDS = "luceneindexer.dedup.fields";
+    static final String PROP_DEDUP_ACTION = "luceneindexer.dedup.action";
+    static final String PROP_DEDUP_TAG_FIELD = "luceneindexer.dedup.tagfield";
+    static final String PROP_DEDUP_DIR = "luceneindexer.dedup.dir";
+    static final String PROP_DEDUP_SHINGLE_SIZE = "luceneindexer.dedup.shinglesize";
+    static final String PROP_DEDUP_BANDS = "luceneindexer.dedup.bands";
+    static final String PROP_DEDUP_ROWS = "luceneindexer.dedup.rows";
+    
+    static final String PROP_KEY_LOOKUP_FIELD = "luceneindexer.keylookup.field";
+    
+    static final String PROP_SPLIT_FIELDS = "luceneindexer.split.fields";
+    static final String PROP_SPLIT_DIR = "luceneindexer.split.dir";
+    static final String PROP_SPLIT_LIGHT_ONLY = "luceneindexer.split.lightonly";
+    static final String PROP_SPLIT_BUFFER_SIZE = "luceneindexer.split.buffersize";
+    
+    static final String PROP_WARMUP_QUERIES = "luceneindexer.warmup.queries";
+    static final String PROP_WARMUP_DEFAULT_FIELD = "luceneindexer.warmup.defaultfield";
+    static final String PROP_WARMUP_SORT_FIELDS = "luceneindexer.warmup.sortfields";
+    
+    static final String PROP_FIELD_COSTS = "luceneindexer.fieldcosts";
+    static final String PROP_FIELD_COSTS_REPORT = "luceneindexer.fieldcosts.report";
+    
+    static final String PROP_THROTTLE_FLUSH_MB_PER_SEC = "luceneindexer.throttle.flushmbpersec";
+    static final String PROP_THROTTLE_MERGE_MB_PER_SEC = "luceneindexer.throttle.mergembpersec";
+    static final String PROP_THROTTLE_FORCE_MERGE_MB_PER_SEC = "luceneindexer.throttle.forcemergembpersec";
+    
+    static final String PROP_SORT_FIELD = "luceneindexer.sort.field";
+    static final String PROP_SORT_REVERSE = "luceneindexer.sort.reverse";
+    static final String PROP_SORT_RAM_BUFFER_SIZE_MB = "luceneindexer.sort.rambuffersizemb";
+    static final String PROP_SORT_TEMP_DIR = "luceneindexer.sort.tmpdir";
+    static final String PROP_SORT_PARTITIONS = "luceneindexer.sort.partitions";
+    
+    static final String PROP_DAEMON_HOST = "luceneindexer.daemon.host";
+    static final String PROP_DAEMON_PORT = "luceneindexer.daemon.port";
+    static final String PROP_DAEMON_COMMIT_DOCS = "luceneindexer.daemon.commitdocs";
+    static final String PROP_DAEMON_COMMIT_INTERVAL_MS = "luceneindexer.daemon.commitintervalms";
+    static final String PROP_DAEMON_REFRESH_MS = "luceneindexer.daemon.refreshms";
+    static final String PROP_DAEMON_MAX_DOCUMENT_BYTES = "luceneindexer.daemon.maxdocumentbytes";
+    static final String PROP_DAEMON_SHUTDOWN_TIMEOUT_MS = "luceneindexer.daemon.shutdowntimeoutms";
+    
+    static final String PROP_TAIL_POLL_MS = "luceneindexer.tail.pollms";
+    static final String PROP_TAIL_PATTERN = "luceneindexer.tail.pattern";
+    static final String PROP_TAIL_STATE_FILE = "luceneindexer.tail.statefile";
+    static final String PROP_TAIL_FAILED_FILE = "luceneindexer.tail.failedfile";
+    static final String PROP_TAIL_SKIP_EXISTING = "luceneindexer.tail.skipexisting";
+    static final String PROP_TAIL_RECORD_BUILD = "luceneindexer.tail.recordbuild";
+    
     static final String PROP_DEFAULT_ANALYZER = "luceneindexer.default.analyzer";
     static final String PROP_DEFAULT_STORE = "luceneindexer.default.store";
     static final String PROP_DEFAULT_INDEX = "luceneindexer.default.index";
     static final String PROP_DEFAULT_TERMVECTOR = "luceneindexer.default.termvector";
     static final String PROP_DEFAULT_FIELDTYPE = "luceneindexer.default.fieldtype";
+    static final String PROP_DEFAULT_COMPRESS = "luceneindexer.default.compress";
     
     static final String PROP_PREFIX_FIELD = "luceneindexer.field.";
     static final String PROP_SUFFIX_FIELDKEY = ".fieldkey";
@@ -46,8 +99,25 @@ interface Constant {
     static final String PROP_SUFFIX_INDEX = ".index";
     static final String PROP_SUFFIX_TERMVECTOR = ".termvector";
     static final String PROP_SUFFIX_FIELDTYPE = ".fieldtype";
+    static final String PROP_SUFFIX_COMPRESS = ".compress";
     
     static final int DEFAULT_NUM_CONSUMERS = Runtime.getRuntime().availableProcessors() - 1;
     static final int DEFAULT_MAX_CACHE_SIZE = 128;
+    static final int DEFAULT_SORT_RAM_BUFFER_SIZE_MB = 256;
+    static final String DEFAULT_DAEMON_HOST = "127.0.0.1";
+    static final int DEFAULT_DAEMON_PORT = 7531;
+    static final int DEFAULT_DAEMON_COMMIT_DOCS = 10000;
+    static final int DEFAULT_DAEMON_COMMIT_INTERVAL_MS = 60000;
+    static final int DEFAULT_DAEMON_REFRESH_MS = 1000;
+    static final int DEFAULT_DAEMON_MAX_DOCUMENT_BYTES = 64 * 1024 * 1024;
+    static final int DEFAULT_DAEMON_SHUTDOWN_TIMEOUT_MS = 10000;
+    static final int DEFAULT_TAIL_POLL_MS = 5000;
+    static final String DEFAULT_SPLIT_DIR_NAME = "heavy";
+    static final int DEFAULT_SPLIT_BUFFER_SIZE = 1000;
+    static final String DEFAULT_DEDUP_TAG_FIELD = "DUPLICATE";
+    static final String DEFAULT_DEDUP_DIR_NAME = "duplicates";
+    static final int DEFAULT_DEDUP_SHINGLE_SIZE = 3;
+    static final int DEFAULT_DEDUP_BANDS = 16;
+    static final int DEFAULT_DEDUP_ROWS = 8;
     
 }
@@ -0,0 +1,113 @@
+/**
+ * Copyright (C) 2014 Kno.e.sis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knoesis.lucene.indexer;
+
+import java.io.IOException;
+import java.io.Reader;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.document.Fieldable;
+
+/**
+ * Wraps the index {@code Analyzer}, counting the time spent producing tokens,
+ * the number of tokens, and their total length for each field in a 
+ * {@link FieldCostTracker}.
+ */
+final class CostTrackingAnalyzer extends Analyzer {
+    
+    private final Analyzer delegate;
+    private final FieldCostTracker tracker;
+
+    CostTrackingAnalyzer(Analyzer delegate, FieldCostTracker tracker) {
+        this.delegate = delegate;
+        this.tracker = tracker;
+    }
+
+    @Override
+    public TokenStream tokenStream(String fieldName, Reader reader) {
+        long start = System.nanoTime();
+        TokenStream stream = delegate.tokenStream(fieldName, reader);
+        FieldCostTracker.FieldCost cost = tracker.get(fieldName);
+        cost.analysisNanos.addAndGet(System.nanoTime() - start);
+        return new CountingFilter(stream, cost);
+    }
+
+    @Override
+    public TokenStream reusableTokenStream(String fieldName, Reader reader) throws IOException {
+        long start = System.nanoTime();
+        TokenStream stream = delegate.reusableTokenStream(fieldName, reader);
+        FieldCostTracker.FieldCost cost = tracker.get(fieldName);
+        cost.analysisNanos.addAndGet(System.nanoTime() - start);
+        return new CountingFilter(stream, cost);
+    }
+
+    @Override
+    public int getPositionIncrementGap(String fieldName) {
+        return delegate.getPositionIncrementGap(fieldName);
+    }
+
+    @Override
+    public int getOffsetGap(Fieldable field) {
+        return delegate.getOffsetGap(field);
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+    
+    private static final class CountingFilter extends TokenFilter {
+        
+        private final FieldCostTracker.FieldCost cost;
+        private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+        private long nanos = 0;
+        private long tokens = 0;
+        private long chars = 0;
+
+        CountingFilter(TokenStream input, FieldCostTracker.FieldCost cost) {
+            super(input);
+            this.cost = cost;
+        }
+
+        @Override
+        public boolean incrementToken() throws IOException {
+            long start = System.nanoTime();
+            boolean hasToken = input.incrementToken();
+            nanos += System.nanoTime() - start;
+            if (hasToken) {
+                tokens++;
+                chars += termAtt.length();
+            }
+            return hasToken;
+        }
+
+        @Override
+        public void end() throws IOException {
+            super.end();
+            cost.analysisNanos.addAndGet(nanos);
+            cost.tokens.addAndGet(tokens);
+            cost.tokenChars.addAndGet(chars);
+            nanos = 0;
+            tokens = 0;
+            chars = 0;
+        }
+        
+    }
+    
+}
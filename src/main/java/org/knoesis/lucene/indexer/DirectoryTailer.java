@@ -0,0 +1,363 @@
+/**
+ * Copyright (C) 2014 Kno.e.sis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knoesis.lucene.indexer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import org.apache.lucene.document.Document;
+import org.knoesis.lucene.indexer.utils.PropUtils;
+import org.knoesis.util.concurrent.producerconsumer.Consumer;
+import org.knoesis.util.concurrent.producerconsumer.ProducerConsumer;
+
+/**
+ * Watches the corpus directory and indexes new files through an 
+ * {@link IndexingDaemon} as they arrive. The directory is polled every 
+ * {@code luceneindexer.tail.pollms}, and a file is considered complete once its
+ * size and modification time are unchanged between two polls. Complete files 
+ * are added to the daemon one at a time, and committed by its usual 
+ * {@code luceneindexer.daemon.commitdocs} / {@code luceneindexer.daemon.commitintervalms}
+ * policy, so small files arriving together share a commit.
+ * <br/><br/>
+ * Each file is read by a new instance of the configured {@link CorpusReader},
+ * initialized with a copy of the properties in which 
+ * {@code luceneindexer.corpusdir} is set to the path of that file, so readers 
+ * used in tailing mode must accept a single file in place of a directory.
+ * <br/><br/>
+ * The name of each indexed file is appended to {@code luceneindexer.tail.statefile}
+ * once a commit covering all its documents has completed, and is skipped 
+ * after a restart. A file which was committed but not yet recorded when the 
+ * process died is indexed again. A file which fails to index is not retried,
+ * since some of its documents may already be indexed: it is logged and 
+ * appended to {@code luceneindexer.tail.failedfile} instead, from which it 
+ * can be removed to retry it once the problem is fixed. If the index is 
+ * overwritten ({@code --force-overwrite}), both files are discarded.
+ * <br/><br/>
+ * With {@code luceneindexer.tail.recordbuild}, a batch build with 
+ * {@link LuceneIndexer} records the corpus files present when it started in 
+ * the state file, so tailing can continue from a batch built index. For an 
+ * index built otherwise, {@code luceneindexer.tail.skipexisting} records the
+ * files present at startup as processed if there is no state file yet.
+ */
+class DirectoryTailer implements Runnable {
+    
+    private static final Logger LOG = Logger.getLogger(DirectoryTailer.class.getName());
+    private static final String DEFAULT_STATE_FILENAME = "tailed-files.txt";
+    private static final String DEFAULT_FAILED_FILENAME = "tailed-files-failed.txt";
+    
+    /**
+     * Returns the files in the corpus directory which tailing would index, in
+     * name order.
+     */
+    static List<File> listCorpusFiles(Properties properties) {
+        List<File> corpusFiles = new ArrayList<File>();
+        String corpusDir = properties.getProperty(Constant.PROP_CORPUS_DIR);
+        File[] files = corpusDir == null ? null : new File(corpusDir).listFiles();
+        if (files == null) {
+            return corpusFiles;
+        }
+        Arrays.sort(files);
+        Pattern pattern = Pattern.compile(properties.getProperty(Constant.PROP_TAIL_PATTERN, ".*"));
+        File stateFile = getStateFile(properties);
+        for (File file : files) {
+            if (file.isFile() && pattern.matcher(file.getName()).matches() && !file.equals(stateFile)) {
+                corpusFiles.add(file);
+            }
+        }
+        return corpusFiles;
+    }
+    
+    /**
+     * Records the given files as processed in the state file, replacing its 
+     * contents if {@code replace} is set (e.g. after the index has been 
+     * overwritten), or else appending to it.
+     */
+    static void writeState(Properties properties, List<File> files, boolean replace) throws IOException {
+        File stateFile = getStateFile(properties);
+        if (replace) {
+            delete(stateFile);
+        }
+        append(stateFile, files);
+    }
+    
+    private static File getStateFile(Properties properties) {
+        return new File(properties.getProperty(Constant.PROP_TAIL_STATE_FILE, 
+                new File(properties.getProperty(Constant.PROP_LUCENE_DIR), DEFAULT_STATE_FILENAME).getPath()));
+    }
+    
+    private final Properties properties;
+    private final IndexingDaemon daemon;
+    private final File corpusDir;
+    private final File stateFile;
+    private final File failedFile;
+    private final Pattern pattern;
+    private final long pollMs;
+    private final Class<CorpusReader> corpusReaderClass;
+    private final Set<String> processed = new HashSet<String>();
+    private final Map<String, Long> lastSeen = new HashMap<String, Long>();
+    // files added to the daemon, with the number of the commit that covers them
+    private final Map<File, Long> uncommitted = new LinkedHashMap<File, Long>();
+    private volatile boolean running = false;
+    private Thread thread;
+
+    /**
+     * Creates a tailer adding documents to {@code daemon}. If 
+     * {@code forceOverwrite} is set, the daemon has overwritten the index, so
+     * the state and failed files are discarded and every corpus file is 
+     * indexed again.
+     */
+    DirectoryTailer(Properties properties, IndexingDaemon daemon, boolean forceOverwrite) throws ClassNotFoundException, IOException {
+        this.properties = properties;
+        this.daemon = daemon;
+        this.corpusDir = new File(properties.getProperty(Constant.PROP_CORPUS_DIR));
+        this.stateFile = getStateFile(properties);
+        this.failedFile = new File(properties.getProperty(Constant.PROP_TAIL_FAILED_FILE, 
+                new File(properties.getProperty(Constant.PROP_LUCENE_DIR), DEFAULT_FAILED_FILENAME).getPath()));
+        this.pattern = Pattern.compile(properties.getProperty(Constant.PROP_TAIL_PATTERN, ".*"));
+        this.pollMs = PropUtils.getInt(properties, Constant.PROP_TAIL_POLL_MS, Constant.DEFAULT_TAIL_POLL_MS);
+        this.corpusReaderClass = (Class<CorpusReader>) Class.forName(properties.getProperty(Constant.PROP_CORPUS_READER_CLASS));
+        if (forceOverwrite) {
+            delete(stateFile);
+            delete(failedFile);
+        } else if (!stateFile.exists() && PropUtils.getBoolean(properties, Constant.PROP_TAIL_SKIP_EXISTING)) {
+            List<File> existing = listCorpusFiles(properties);
+            writeState(properties, existing, true);
+            System.out.format("Recorded %d existing corpus files as already indexed\n", existing.size());
+        }
+        load(stateFile);
+        load(failedFile);
+    }
+    
+    void start() {
+        running = true;
+        thread = new Thread(this, "directory-tailer");
+        thread.start();
+    }
+    
+    /**
+     * Stops polling, waiting for a file in progress to be added, then commits
+     * and records the files not yet covered by a commit.
+     * @throws InterruptedException 
+     * @throws IOException 
+     */
+    void stop() throws InterruptedException, IOException {
+        running = false;
+        if (thread != null) {
+            thread.join();
+        }
+        if (!uncommitted.isEmpty() && !daemon.hasFailed()) {
+            daemon.commit();
+            recordCommitted();
+        }
+    }
+
+    public void run() {
+        System.out.format("Tailing %s\n", corpusDir);
+        while (running) {
+            if (daemon.hasFailed()) {
+                LOG.log(Level.SEVERE, "Stopped tailing {0} since the indexing daemon has failed", corpusDir);
+                return;
+            }
+            try {
+                for (File file : poll()) {
+                    if (!running) {
+                        break;
+                    }
+                    index(file);
+                    recordCommitted();
+                }
+                recordCommitted();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception ex) {
+                LOG.log(Level.SEVERE, "Failed to index new corpus files", ex);
+            }
+            try {
+                Thread.sleep(pollMs);
+            } catch (InterruptedException ex) {
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Returns the unprocessed files whose size and modification time have not 
+     * changed since the previous poll.
+     */
+    private List<File> poll() {
+        List<File> complete = new ArrayList<File>();
+        File[] files = corpusDir.listFiles();
+        if (files == null) {
+            LOG.log(Level.WARNING, "Unable to list corpus directory {0}", corpusDir);
+            return complete;
+        }
+        Arrays.sort(files);
+        Map<String, Long> seen = new HashMap<String, Long>();
+        for (File file : files) {
+            String name = file.getName();
+            if (!file.isFile() || processed.contains(name) || file.equals(stateFile) || file.equals(failedFile) || !pattern.matcher(name).matches()) {
+                continue;
+            }
+            long signature = file.length() * 31 + file.lastModified();
+            Long previous = lastSeen.get(name);
+            if (previous != null && previous == signature) {
+                complete.add(file);
+            } else {
+                seen.put(name, signature);
+            }
+        }
+        lastSeen.clear();
+        lastSeen.putAll(seen);
+        return complete;
+    }
+    
+    /**
+     * Adds the documents of one file to the daemon, to be recorded as 
+     * processed once they are committed. If the file fails, it is recorded as
+     * failed instead, since documents from it may already have been indexed 
+     * (and committed) and must not be added twice.
+     */
+    private void index(File file) throws InterruptedException, IOException {
+        long start = System.currentTimeMillis();
+        final AtomicLong added = new AtomicLong();
+        try {
+            Properties fileProperties = new Properties();
+            fileProperties.putAll(properties);
+            fileProperties.setProperty(Constant.PROP_CORPUS_DIR, file.getPath());
+            CorpusReader corpusReader = corpusReaderClass.newInstance();
+            corpusReader.init(daemon.getFieldDocFactory(), fileProperties);
+            ProducerConsumer.<Document>newBuilder()
+                    .setBufferSize(PropUtils.getInt(properties, Constant.PROP_DOC_BUFFER_SIZE, Integer.MAX_VALUE))
+                    .addProducer(corpusReader)
+                    .addConsumer(new Consumer<Document>() {
+                        public void consume(Iterable<Document> documents) {
+                            try {
+                                for (Document doc : documents) {
+                                    daemon.add(doc);
+                                    added.incrementAndGet();
+                                }
+                            } catch (InterruptedException ex) {
+                                Thread.currentThread().interrupt();
+                            }
+                        }
+                    })
+                    .build()
+                    .begin();
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        } catch (InterruptedException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            if (daemon.hasFailed()) {
+                // not the file's fault; it is indexed again after a restart
+                throw new IOException("Indexing daemon failed while indexing " + file, ex);
+            }
+            LOG.log(Level.SEVERE, String.format("Failed to index corpus file %s after adding %d of its documents; "
+                    + "recording it in %s, from which it can be removed to retry it", file, added.get(), failedFile), ex);
+            append(failedFile, Collections.singletonList(file));
+            processed.add(file.getName());
+            return;
+        }
+        uncommitted.put(file, daemon.getCommitsStarted() + 1);
+        processed.add(file.getName());
+        System.out.format("Indexed %d documents from %s in %d seconds\n", added.get(), file.getName(), (System.currentTimeMillis() - start) / 1000);
+    }
+    
+    /**
+     * Appends the files covered by a completed commit to the state file.
+     */
+    private void recordCommitted() throws IOException {
+        long committed = daemon.getCommitsCompleted();
+        List<File> files = new ArrayList<File>();
+        Iterator<Map.Entry<File, Long>> entries = uncommitted.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<File, Long> entry = entries.next();
+            if (entry.getValue() <= committed) {
+                files.add(entry.getKey());
+                entries.remove();
+            }
+        }
+        if (!files.isEmpty()) {
+            append(stateFile, files);
+        }
+    }
+    
+    private static void delete(File file) throws IOException {
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Failed to delete " + file);
+        }
+    }
+    
+    private void load(File file) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() > 0) {
+                    processed.add(line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+    
+    /**
+     * Appends the names of the given files to a state file, syncing it to 
+     * disk.
+     */
+    private static void append(File stateFile, List<File> files) throws IOException {
+        FileOutputStream out = new FileOutputStream(stateFile, true);
+        try {
+            Writer writer = new OutputStreamWriter(out, "UTF-8");
+            for (File file : files) {
+                writer.write(file.getName());
+                writer.write('\n');
+            }
+            writer.flush();
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+    }
+    
+}
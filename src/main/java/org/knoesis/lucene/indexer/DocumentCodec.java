@@ -0,0 +1,219 @@
+/**
+ * Copyright (C) 2014 Kno.e.sis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knoesis.lucene.indexer;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.Fieldable;
+
+/**
+ * Reads and writes {@code Document}s in a compact binary form, so they can be 
+ * spilled to disk or sent over the wire and later rebuilt through a 
+ * {@link FieldDocFactory}. Only field names and values (string or binary) and 
+ * the document boost are kept; all other field settings come from the 
+ * properties file when the document is read back. Compressed fields are 
+ * written as their compressed bytes, plus their text only if they are 
+ * indexed, so they are not compressed again when read back.
+ */
+class DocumentCodec {
+    
+    private static final byte KIND_STRING = 0;
+    private static final byte KIND_BINARY = 1;
+    private static final byte KIND_COMPRESSED = 2;
+    
+    /**
+     * Writes the given document to {@code out}. Fields having neither a string 
+     * nor a binary value (e.g. {@code Reader}-valued fields) cannot be encoded 
+     * and are skipped with a warning.
+     * @param document the document to write
+     * @param out the destination
+     * @throws IOException 
+     */
+    static void write(Document document, DataOutput out) throws IOException {
+        int count = 0;
+        for (Fieldable field : document.getFields()) {
+            if (field.stringValue() != null || field.isBinary()) {
+                count++;
+            }
+        }
+        out.writeFloat(document.getBoost());
+        out.writeInt(count);
+        for (Fieldable field : document.getFields()) {
+            if (field instanceof CompressedField) {
+                ((CompressedField)field).compress();
+                out.writeUTF(field.name());
+                out.writeByte(KIND_COMPRESSED);
+                out.writeInt(field.getBinaryLength());
+                out.write(field.getBinaryValue(), field.getBinaryOffset(), field.getBinaryLength());
+                out.writeBoolean(field.isIndexed());
+                if (field.isIndexed()) {
+                    writeString(field.stringValue(), out);
+                }
+            } else if (field.stringValue() != null) {
+                out.writeUTF(field.name());
+                out.writeByte(KIND_STRING);
+                writeString(field.stringValue(), out);
+            } else if (field.isBinary()) {
+                out.writeUTF(field.name());
+                out.writeByte(KIND_BINARY);
+                out.writeInt(field.getBinaryLength());
+                out.write(field.getBinaryValue(), field.getBinaryOffset(), field.getBinaryLength());
+            } else {
+                Logger.getLogger(DocumentCodec.class.getName()).log(Level.WARNING, "Skipping field {0} which has no string or binary value", field.name());
+            }
+        }
+    }
+    
+    /**
+     * Reads back a document this process previously wrote with {@link #write(org.apache.lucene.document.Document, java.io.DataOutput)}
+     * (e.g. to a spill file), obtaining the {@code Document} and its fields 
+     * from {@code fields}. The field values were recorded by the factory's 
+     * cost tracker when the document was first built, so they are not 
+     * recorded again.
+     * @param in the source
+     * @param fields the factory from which to obtain documents and fields
+     * @return the document read
+     * @throws IOException 
+     */
+    static Document read(DataInput in, FieldDocFactory fields) throws IOException {
+        return read(in, fields, Integer.MAX_VALUE, false);
+    }
+    
+    /**
+     * Reads a document written elsewhere, for input which cannot be trusted 
+     * (e.g. from a socket): the document is rejected before anything is 
+     * allocated for it if a length prefix is negative, or if its values add up
+     * to more than {@code maxBytes}. Field values are recorded by the 
+     * factory's cost tracker, if any.
+     * @param in the source
+     * @param fields the factory from which to obtain documents and fields
+     * @param maxBytes the maximum total length of the document's values
+     * @return the document read
+     * @throws IOException if the document cannot be read or is too large
+     */
+    static Document read(DataInput in, FieldDocFactory fields, int maxBytes) throws IOException {
+        return read(in, fields, maxBytes, true);
+    }
+    
+    private static Document read(DataInput in, FieldDocFactory fields, int maxBytes, boolean recordCost) throws IOException {
+        Document doc = fields.createDocument();
+        doc.setBoost(in.readFloat());
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Invalid field count " + count);
+        }
+        int remaining = maxBytes;
+        for (int i=0; i<count; i++) {
+            String name = in.readUTF();
+            byte kind = in.readByte();
+            int length = readLength(in, remaining);
+            remaining -= length;
+            if (kind == KIND_STRING) {
+                doc.add(fields.createField(name, readString(in, length), recordCost));
+            } else if (kind == KIND_BINARY) {
+                byte[] value = new byte[length];
+                in.readFully(value);
+                doc.add(new Field(name, value));
+            } else if (kind == KIND_COMPRESSED) {
+                byte[] value = new byte[length];
+                in.readFully(value);
+                String text = null;
+                if (in.readBoolean()) {
+                    int textLength = readLength(in, remaining);
+                    remaining -= textLength;
+                    text = readString(in, textLength);
+                }
+                try {
+                    doc.add(fields.createCompressedField(name, value, text, recordCost));
+                } catch (DataFormatException ex) {
+                    throw new IOException("Invalid compressed value for field " + name, ex);
+                }
+            } else {
+                throw new IOException("Unknown kind " + kind + " of field " + name);
+            }
+        }
+        return doc;
+    }
+    
+    /**
+     * Skips over a document previously written by {@link #write(org.apache.lucene.document.Document, java.io.DataOutput)} 
+     * without constructing it.
+     * @param in the source
+     * @throws IOException 
+     */
+    static void skip(DataInput in) throws IOException {
+        in.readFloat();
+        int count = in.readInt();
+        for (int i=0; i<count; i++) {
+            in.readUTF();
+            byte kind = in.readByte();
+            skipBytes(in, readLength(in, Integer.MAX_VALUE));
+            if (kind == KIND_COMPRESSED && in.readBoolean()) {
+                skipBytes(in, readLength(in, Integer.MAX_VALUE));
+            }
+        }
+    }
+    
+    private static void skipBytes(DataInput in, int length) throws IOException {
+        int remaining = length;
+        while (remaining > 0) {
+            int skipped = in.skipBytes(remaining);
+            if (skipped <= 0) {
+                in.readByte();
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+    }
+    
+    /**
+     * Writes a string of any length as UTF-8 (unlike 
+     * {@link DataOutput#writeUTF(java.lang.String)}, which is limited to 64K).
+     */
+    static void writeString(String value, DataOutput out) throws IOException {
+        byte[] bytes = value.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+    
+    static String readString(DataInput in) throws IOException {
+        return readString(in, readLength(in, Integer.MAX_VALUE));
+    }
+    
+    private static String readString(DataInput in, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+    
+    private static int readLength(DataInput in, int maxLength) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > maxLength) {
+            throw new IOException(String.format("Invalid value length %d (at most %d bytes allowed)", length, maxLength));
+        }
+        return length;
+    }
+    
+    private DocumentCodec() {}
+    
+}
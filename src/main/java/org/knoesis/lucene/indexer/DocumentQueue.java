@@ -0,0 +1,214 @@
+/**
+ * Copyright (C) 2014 Kno.e.sis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knoesis.lucene.indexer;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeSet;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.apache.lucene.document.Document;
+
+/**
+ * A bounded, closeable queue of {@code Document}s which can be handed to any 
+ * number of {@link Indexer}s (or other consumers) as a blocking 
+ * {@code Iterable}. Each call to {@link #iterator()} returns a new iterator 
+ * which should be used by a single thread; its {@code hasNext()} blocks until 
+ * a document is available or the queue has been closed and drained.
+ * <br/><br/>
+ * Documents are numbered in the order they are put. A document is considered
+ * in flight from the time it is taken by an iterator until the same 
+ * iterator's {@code hasNext()} is called again, which lets 
+ * {@link #awaitProcessed()} wait until every document put before it was 
+ * called has been fully processed (e.g. before a commit), however many are 
+ * put meanwhile.
+ */
+class DocumentQueue implements Iterable<Document> {
+    
+    private final Deque<Document> queue = new ArrayDeque<Document>();
+    private final int capacity;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Condition processed = lock.newCondition();
+    private final TreeSet<Long> inFlight = new TreeSet<Long>();
+    private final Map<Thread, Long> held = new HashMap<Thread, Long>();
+    // number of documents put, and taken by iterators, so far; the document
+    // at the head of the queue is number taken + 1
+    private long put = 0;
+    private long taken = 0;
+    private boolean closed = false;
+    private boolean aborted = false;
+
+    DocumentQueue(int capacity) {
+        this.capacity = capacity;
+    }
+    
+    /**
+     * Adds a document, blocking while the queue is full.
+     * @param document the document to add
+     * @throws InterruptedException 
+     * @throws IllegalStateException if the queue has been closed
+     */
+    void put(Document document) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (queue.size() >= capacity && !closed) {
+                notFull.await();
+            }
+            if (closed) {
+                throw new IllegalStateException("DocumentQueue is closed");
+            }
+            queue.add(document);
+            put++;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Closes the queue to new documents. Iterators return the documents 
+     * already queued and then end.
+     */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Closes the queue and discards the documents not yet taken, after a 
+     * failure from which they cannot be processed. Threads waiting in 
+     * {@link #awaitProcessed()} return.
+     */
+    void abort() {
+        lock.lock();
+        try {
+            aborted = true;
+            taken = put;
+            queue.clear();
+            close();
+            processed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Blocks until every document put before this call has been processed, 
+     * or the queue has been aborted. Documents put meanwhile are not waited 
+     * for.
+     * @throws InterruptedException 
+     */
+    void awaitProcessed() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            long last = put;
+            while (!aborted && (taken < last || (!inFlight.isEmpty() && inFlight.first() <= last))) {
+                processed.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Releases the document held by the calling thread, if any, so it no 
+     * longer counts as in flight. Consumers whose processing fails call this
+     * before giving up the queue.
+     */
+    void release() {
+        lock.lock();
+        try {
+            releaseHeld();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    int size() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Iterator<Document> iterator() {
+        return new Iterator<Document>() {
+            
+            private Document next = null;
+
+            public boolean hasNext() {
+                lock.lock();
+                try {
+                    if (next != null) {
+                        return true;
+                    }
+                    releaseHeld();
+                    while (queue.isEmpty() && !closed) {
+                        notEmpty.awaitUninterruptibly();
+                    }
+                    next = queue.poll();
+                    if (next != null) {
+                        taken++;
+                        inFlight.add(taken);
+                        held.put(Thread.currentThread(), taken);
+                        notFull.signal();
+                    }
+                    return next != null;
+                } finally {
+                    lock.unlock();
+                }
+            }
+
+            public Document next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Document document = next;
+                next = null;
+                return document;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+            
+        };
+    }
+    
+    private void releaseHeld() {
+        Long number = held.remove(Thread.currentThread());
+        if (number != null) {
+            inFlight.remove(number);
+            processed.signalAll();
+        }
+    }
+    
+}
@@ -0,0 +1,516 @@
+/**
+ * Copyright (C) 2014 Kno.e.sis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knoesis.lucene.indexer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Fieldable;
+import org.knoesis.lucene.indexer.utils.PropUtils;
+import org.knoesis.util.concurrent.producerconsumer.Consumer;
+
+/**
+ * A {@link Consumer} which collects the {@code Document}s produced by the 
+ * {@link CorpusReader} and hands them back ordered by a configured sort field, 
+ * so the index is built in that order. Documents are buffered in memory up to 
+ * {@code luceneindexer.sort.rambuffersizemb}, after which the buffer is sorted 
+ * and spilled to disk as a run. Once all documents are collected, the runs are 
+ * merged as a stream, optionally split into several contiguous key ranges which
+ * can be indexed in parallel and concatenated in order afterwards.
+ * <br/><br/>
+ * Documents with equal keys keep the order in which they were received, and 
+ * documents missing the sort field (or whose value cannot be parsed as the 
+ * field's {@link FieldType}) are placed last.
+ */
+class DocumentSorter implements Consumer<Document> {
+    
+    private static final int INDEX_INTERVAL = 256;
+    private static final int ENTRY_OVERHEAD_BYTES = 64;
+    private static final int IO_BUFFER_SIZE = 1 << 16;
+    
+    private static final byte KEY_NULL = 0;
+    private static final byte KEY_LONG = 1;
+    private static final byte KEY_DOUBLE = 2;
+    private static final byte KEY_STRING = 3;
+    
+    private final FieldDocFactory fields;
+    private final String sortField;
+    private final FieldType sortType;
+    private final Comparator<Object> keyComparator;
+    private final Comparator<Entry> entryComparator;
+    private final long maxBufferBytes;
+    private final File tempDir;
+    private final List<Entry> buffer = new ArrayList<Entry>();
+    private final List<FileRun> runs = new ArrayList<FileRun>();
+    private long bufferBytes = 0;
+    private boolean finished = false;
+    
+    DocumentSorter(Properties properties, FieldDocFactory fields) {
+        this.fields = fields;
+        this.sortField = properties.getProperty(Constant.PROP_SORT_FIELD);
+        this.sortType = fields.getFieldType(sortField);
+        this.keyComparator = new KeyComparator(PropUtils.getBoolean(properties, Constant.PROP_SORT_REVERSE));
+        this.entryComparator = new Comparator<Entry>() {
+            public int compare(Entry e1, Entry e2) {
+                return keyComparator.compare(e1.key, e2.key);
+            }
+        };
+        this.maxBufferBytes = PropUtils.getInt(properties, Constant.PROP_SORT_RAM_BUFFER_SIZE_MB, Constant.DEFAULT_SORT_RAM_BUFFER_SIZE_MB) * 1024L * 1024L;
+        this.tempDir = new File(properties.getProperty(Constant.PROP_SORT_TEMP_DIR, System.getProperty("java.io.tmpdir")));
+    }
+
+    /**
+     * Collects {@code Document}s, spilling sorted runs to disk whenever the 
+     * memory budget is exceeded.
+     * @param documents a blocking {@link Iterable} of {@code Document}s produced by the {@link CorpusReader}.
+     */
+    public void consume(Iterable<Document> documents) {
+        for (Document doc : documents) {
+            try {
+                add(doc);
+            } catch (IOException ex) {
+                Logger.getLogger(DocumentSorter.class.getName()).log(Level.SEVERE, "Failed to spill sorted run to disk", ex);
+                throw new IllegalStateException("Failed to spill sorted run to disk", ex);
+            }
+        }
+    }
+    
+    synchronized void add(Document doc) throws IOException {
+        if (finished) {
+            throw new IllegalStateException("DocumentSorter is already finished");
+        }
+        // not doc.get(), which skips compressed fields once they are compressed
+        Fieldable key = doc.getFieldable(sortField);
+        buffer.add(new Entry(parseKey(key != null ? key.stringValue() : null), doc));
+        bufferBytes += estimateSize(doc);
+        if (bufferBytes >= maxBufferBytes) {
+            spill();
+        }
+    }
+    
+    /**
+     * Stops accepting documents and splits the sorted stream into 
+     * {@code count} contiguous key ranges. The first partition holds the 
+     * smallest keys (or the largest, if reversed), and each partition is 
+     * ordered, so indexing the partitions separately and concatenating the 
+     * results in list order yields a fully sorted index. Partitions are chosen
+     * from sampled keys and may differ in size; documents with equal keys 
+     * always end up in the same partition. Each returned {@code Iterable} 
+     * should be iterated only once.
+     * @param count the number of partitions
+     * @return {@code count} ordered partitions of the collected documents
+     */
+    synchronized List<Iterable<Document>> finish(int count) {
+        finished = true;
+        Collections.sort(buffer, entryComparator);
+        if (!runs.isEmpty()) {
+            Logger.getLogger(DocumentSorter.class.getName()).log(Level.INFO, "Merging {0} sorted runs and {1} buffered documents", new Object[] { runs.size(), buffer.size() });
+        }
+        
+        List<Object> samples = new ArrayList<Object>();
+        for (FileRun run : runs) {
+            for (IndexPoint point : run.index) {
+                samples.add(point.key);
+            }
+        }
+        for (int i=0; i<buffer.size(); i+=INDEX_INTERVAL) {
+            samples.add(buffer.get(i).key);
+        }
+        Collections.sort(samples, keyComparator);
+        
+        List<Iterable<Document>> partitions = new ArrayList<Iterable<Document>>(count);
+        Bound lo = null;
+        for (int i=1; i<=count; i++) {
+            Bound hi = (i == count || samples.isEmpty()) ? null : new Bound(samples.get(i * samples.size() / count));
+            partitions.add(new Partition(lo, hi));
+            lo = hi;
+        }
+        return partitions;
+    }
+    
+    /**
+     * Deletes all spilled runs. Should be called once all partitions have been
+     * consumed.
+     */
+    synchronized void close() {
+        for (FileRun run : runs) {
+            if (!run.file.delete()) {
+                run.file.deleteOnExit();
+            }
+        }
+        runs.clear();
+        buffer.clear();
+    }
+    
+    private void spill() throws IOException {
+        Collections.sort(buffer, entryComparator);
+        File file = File.createTempFile("luceneindexer-sort-", ".run", tempDir);
+        file.deleteOnExit();
+        FileRun run = new FileRun(file, runs.size());
+        FileOutputStream fileOut = new FileOutputStream(file);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, IO_BUFFER_SIZE));
+            for (int i=0; i<buffer.size(); i++) {
+                Entry entry = buffer.get(i);
+                if (i % INDEX_INTERVAL == 0) {
+                    out.flush();
+                    run.index.add(new IndexPoint(entry.key, fileOut.getChannel().position()));
+                }
+                writeKey(entry.key, out);
+                DocumentCodec.write(entry.doc, out);
+                fields.recycle(entry.doc);
+            }
+            out.flush();
+            run.size = buffer.size();
+        } finally {
+            fileOut.close();
+        }
+        runs.add(run);
+        buffer.clear();
+        bufferBytes = 0;
+    }
+    
+    private Object parseKey(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            switch (sortType) {
+                case INT:
+                case LONG:
+                    return Long.valueOf(value.trim());
+                case FLOAT:
+                case DOUBLE:
+                    return Double.valueOf(value.trim());
+                default:
+                    return value;
+            }
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+    
+    private static long estimateSize(Document doc) {
+        long size = ENTRY_OVERHEAD_BYTES;
+        for (Fieldable field : doc.getFields()) {
+            size += ENTRY_OVERHEAD_BYTES + 2 * field.name().length();
+            if (field.isBinary()) {
+                size += field.getBinaryLength();
+            }
+            if (field.stringValue() != null) {
+                size += 2 * field.stringValue().length();
+            }
+        }
+        return size;
+    }
+    
+    private static void writeKey(Object key, DataOutputStream out) throws IOException {
+        if (key == null) {
+            out.writeByte(KEY_NULL);
+        } else if (key instanceof Long) {
+            out.writeByte(KEY_LONG);
+            out.writeLong((Long) key);
+        } else if (key instanceof Double) {
+            out.writeByte(KEY_DOUBLE);
+            out.writeDouble((Double) key);
+        } else {
+            out.writeByte(KEY_STRING);
+            DocumentCodec.writeString((String) key, out);
+        }
+    }
+    
+    private static Object readKey(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case KEY_NULL:
+                return null;
+            case KEY_LONG:
+                return in.readLong();
+            case KEY_DOUBLE:
+                return in.readDouble();
+            case KEY_STRING:
+                return DocumentCodec.readString(in);
+            default:
+                throw new IOException("Unknown sort key type " + type);
+        }
+    }
+    
+    private boolean isBelow(Object key, Bound lo) {
+        return lo != null && keyComparator.compare(key, lo.key) < 0;
+    }
+    
+    private boolean isAtOrAbove(Object key, Bound hi) {
+        return hi != null && keyComparator.compare(key, hi.key) >= 0;
+    }
+    
+    /**
+     * Orders keys ascending (or descending), always placing {@code null} keys 
+     * last.
+     */
+    private static final class KeyComparator implements Comparator<Object> {
+        
+        private final boolean reverse;
+
+        KeyComparator(boolean reverse) {
+            this.reverse = reverse;
+        }
+
+        @SuppressWarnings("unchecked")
+        public int compare(Object k1, Object k2) {
+            if (k1 == null || k2 == null) {
+                return k1 == null ? (k2 == null ? 0 : 1) : -1;
+            }
+            int cmp = ((Comparable<Object>) k1).compareTo(k2);
+            return reverse ? -cmp : cmp;
+        }
+        
+    }
+    
+    private static final class Entry {
+        
+        final Object key;
+        final Document doc;
+
+        Entry(Object key, Document doc) {
+            this.key = key;
+            this.doc = doc;
+        }
+        
+    }
+    
+    private static final class Bound {
+        
+        final Object key;
+
+        Bound(Object key) {
+            this.key = key;
+        }
+        
+    }
+    
+    private static final class IndexPoint {
+        
+        final Object key;
+        final long offset;
+
+        IndexPoint(Object key, long offset) {
+            this.key = key;
+            this.offset = offset;
+        }
+        
+    }
+    
+    /**
+     * A sorted run spilled to disk, along with a sparse index of every 
+     * {@link #INDEX_INTERVAL}th key and its file offset, which allows each 
+     * partition to seek close to the start of its key range.
+     */
+    private static final class FileRun {
+        
+        final File file;
+        final int ordinal;
+        final List<IndexPoint> index = new ArrayList<IndexPoint>();
+        int size;
+
+        FileRun(File file, int ordinal) {
+            this.file = file;
+            this.ordinal = ordinal;
+        }
+        
+    }
+    
+    /**
+     * A cursor over one sorted source (a spilled run or the in-memory buffer),
+     * restricted to a key range.
+     */
+    private abstract static class Cursor {
+        
+        final int ordinal;
+        Entry current;
+
+        Cursor(int ordinal) {
+            this.ordinal = ordinal;
+        }
+        
+        /**
+         * Advances {@link #current} to the next entry in range, or sets it to 
+         * {@code null} if there are no more.
+         */
+        abstract void advance() throws IOException;
+        
+        abstract void close() throws IOException;
+        
+    }
+    
+    private final class FileCursor extends Cursor {
+        
+        private final FileRun run;
+        private final Bound lo;
+        private final Bound hi;
+        private final FileInputStream fileIn;
+        private final DataInputStream in;
+        private int position;
+
+        FileCursor(FileRun run, Bound lo, Bound hi) throws IOException {
+            super(run.ordinal);
+            this.run = run;
+            this.lo = lo;
+            this.hi = hi;
+            long offset = 0;
+            position = 0;
+            for (int i=0; i<run.index.size() && isBelow(run.index.get(i).key, lo); i++) {
+                offset = run.index.get(i).offset;
+                position = i * INDEX_INTERVAL;
+            }
+            fileIn = new FileInputStream(run.file);
+            fileIn.getChannel().position(offset);
+            in = new DataInputStream(new BufferedInputStream(fileIn, IO_BUFFER_SIZE));
+        }
+
+        void advance() throws IOException {
+            current = null;
+            while (position < run.size) {
+                position++;
+                Object key = readKey(in);
+                if (isAtOrAbove(key, hi)) {
+                    position = run.size;
+                    break;
+                }
+                if (isBelow(key, lo)) {
+                    DocumentCodec.skip(in);
+                    continue;
+                }
+                current = new Entry(key, DocumentCodec.read(in, fields));
+                return;
+            }
+            close();
+        }
+
+        void close() throws IOException {
+            in.close();
+        }
+        
+    }
+    
+    private final class BufferCursor extends Cursor {
+        
+        private final Bound hi;
+        private int position = 0;
+
+        BufferCursor(Bound lo, Bound hi) {
+            super(Integer.MAX_VALUE);
+            this.hi = hi;
+            while (position < buffer.size() && isBelow(buffer.get(position).key, lo)) {
+                position++;
+            }
+        }
+
+        void advance() {
+            current = null;
+            if (position < buffer.size() && !isAtOrAbove(buffer.get(position).key, hi)) {
+                current = buffer.get(position++);
+            }
+        }
+
+        void close() {
+        }
+        
+    }
+    
+    /**
+     * One contiguous key range of the sorted stream, produced by a k-way merge
+     * of the spilled runs and the in-memory buffer. Ties are broken by the 
+     * order of the runs, preserving arrival order for equal keys.
+     */
+    private final class Partition implements Iterable<Document> {
+        
+        private final Bound lo;
+        private final Bound hi;
+
+        Partition(Bound lo, Bound hi) {
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        public Iterator<Document> iterator() {
+            final PriorityQueue<Cursor> queue = new PriorityQueue<Cursor>(runs.size() + 1, new Comparator<Cursor>() {
+                public int compare(Cursor c1, Cursor c2) {
+                    int cmp = entryComparator.compare(c1.current, c2.current);
+                    return cmp != 0 ? cmp : (c1.ordinal < c2.ordinal ? -1 : (c1.ordinal == c2.ordinal ? 0 : 1));
+                }
+            });
+            try {
+                for (FileRun run : runs) {
+                    offer(queue, new FileCursor(run, lo, hi));
+                }
+                offer(queue, new BufferCursor(lo, hi));
+            } catch (IOException ex) {
+                throw new IllegalStateException("Failed to open sorted run", ex);
+            }
+            return new Iterator<Document>() {
+
+                public boolean hasNext() {
+                    return !queue.isEmpty();
+                }
+
+                public Document next() {
+                    Cursor cursor = queue.poll();
+                    if (cursor == null) {
+                        throw new NoSuchElementException();
+                    }
+                    Document doc = cursor.current.doc;
+                    try {
+                        offer(queue, cursor);
+                    } catch (IOException ex) {
+                        throw new IllegalStateException("Failed to read sorted run", ex);
+                    }
+                    return doc;
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+                
+            };
+        }
+        
+        private void offer(PriorityQueue<Cursor> queue, Cursor cursor) throws IOException {
+            cursor.advance();
+            if (cursor.current != null) {
+                queue.offer(cursor);
+            }
+        }
+        
+    }
+    
+}
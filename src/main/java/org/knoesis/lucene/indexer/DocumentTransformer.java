@@ -0,0 +1,53 @@
+/**
+ * Copyright (C) 2014 Kno.e.sis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knoesis.lucene.indexer;
+
+import java.util.Properties;
+import org.apache.lucene.document.Document;
+
+/**
+ * A step in the optional transform stage between the {@link CorpusReader} and
+ * the {@link Indexer}s, used for normalization or enrichment of documents 
+ * (e.g. lowercasing names, expanding abbreviations, dropping empty fields). 
+ * Transformers are listed in {@code luceneindexer.transformers} and applied in
+ * that order. Each transform thread has its own instance of every 
+ * transformer, so implementations need not be thread-safe. Compressed 
+ * fields hold plain text until the whole chain has run, so their values can 
+ * be read with {@code Document.get()} as usual.
+ */
+public interface DocumentTransformer {
+    
+    /**
+     * Initializes the {@code DocumentTransformer} with the given 
+     * {@link FieldDocFactory} and the {@link Properties} that were specified 
+     * upon program invocation.
+     * @param fields the {@code FieldDocFactory} to be used by this instance.
+     * @param properties 
+     */
+    void init(FieldDocFactory fields, Properties properties);
+    
+    /**
+     * Transforms a document, usually in place. If a different 
+     * {@code Document} is returned, this method is responsible for recycling 
+     * the original via {@link FieldDocFactory#recycle(org.apache.lucene.document.Document)}.
+     * @param document the document to transform
+     * @return the transformed document, or {@code null} to drop it from the 
+     * index (in which case the stage recycles it)
+     */
+    Document transform(Document document);
+    
+}
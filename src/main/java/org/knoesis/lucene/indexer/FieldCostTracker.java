@@ -0,0 +1,154 @@
+/**
+ * Copyright (C) 2014 Kno.e.sis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knoesis.lucene.indexer;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.lucene.document.Field.Index;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.Field.TermVector;
+import org.apache.lucene.document.Fieldable;
+
+/**
+ * Per-field counters of indexing cost, enabled by {@code luceneindexer.fieldcosts}.
+ * Analysis time and tokens are counted by a {@link CostTrackingAnalyzer} 
+ * around the {@code PerFieldAnalyzerWrapper}, and values and stored bytes by 
+ * {@link FieldDocFactory#createField(java.lang.String, java.lang.String)}
+ * (but not again when a spilled document is read back by a sorted build). 
+ * Non-analyzed fields count one token per value without analysis time, and 
+ * the precision-step terms of numeric fields are not counted. Term vector 
+ * bytes are estimated from the token counts, the token lengths, and the 
+ * field's {@code TermVector} setting.
+ */
+class FieldCostTracker {
+    
+    private final ConcurrentMap<String, FieldCost> costs = new ConcurrentHashMap<String, FieldCost>();
+    
+    FieldCost get(String fieldName) {
+        FieldCost cost = costs.get(fieldName);
+        if (cost == null) {
+            FieldCost newCost = new FieldCost(fieldName);
+            cost = costs.putIfAbsent(fieldName, newCost);
+            if (cost == null) {
+                cost = newCost;
+            }
+        }
+        return cost;
+    }
+    
+    /**
+     * Counts a field value created with the given parameters.
+     */
+    void recordValue(FieldParams params, String value, Fieldable field) {
+        FieldCost cost = get(params.getFieldName());
+        cost.termVector = params.getTermVector();
+        cost.values.incrementAndGet();
+        if (field.isBinary()) {
+            cost.storedBytes.addAndGet(field.getBinaryLength());
+        } else if (params.getStore() != Store.NO) {
+            cost.storedBytes.addAndGet(utf8Length(value));
+        }
+        if (params.getType() == FieldType.TEXT && params.getIndex() != Index.NO && !params.getIndex().isAnalyzed()) {
+            cost.tokens.incrementAndGet();
+            cost.tokenChars.addAndGet(value.length());
+        }
+    }
+    
+    /**
+     * Prints one line per field, ordered by analysis time and then by stored 
+     * bytes, largest first.
+     */
+    void writeReport(PrintStream out) {
+        List<FieldCost> sorted = new ArrayList<FieldCost>(costs.values());
+        Collections.sort(sorted, new Comparator<FieldCost>() {
+            public int compare(FieldCost c1, FieldCost c2) {
+                int cmp = compareDescending(c1.analysisNanos.get(), c2.analysisNanos.get());
+                return cmp != 0 ? cmp : compareDescending(c1.storedBytes.get() + c1.estimateTermVectorBytes(), c2.storedBytes.get() + c2.estimateTermVectorBytes());
+            }
+        });
+        out.format("%-16s %14s %12s %14s %14s %16s %18s%n", "field", "analysis ms", "values", "tokens", "token chars", "stored bytes", "est. tv bytes");
+        for (FieldCost cost : sorted) {
+            out.format("%-16s %14d %12d %14d %14d %16d %18d%n", cost.fieldName, 
+                    TimeUnit.NANOSECONDS.toMillis(cost.analysisNanos.get()), cost.values.get(), cost.tokens.get(), 
+                    cost.tokenChars.get(), cost.storedBytes.get(), cost.estimateTermVectorBytes());
+        }
+    }
+    
+    private static int compareDescending(long v1, long v2) {
+        return v1 < v2 ? 1 : (v1 == v2 ? 0 : -1);
+    }
+    
+    private static long utf8Length(String value) {
+        long length = 0;
+        for (int i=0; i<value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+    
+    static final class FieldCost {
+        
+        final String fieldName;
+        final AtomicLong analysisNanos = new AtomicLong();
+        final AtomicLong values = new AtomicLong();
+        final AtomicLong tokens = new AtomicLong();
+        final AtomicLong tokenChars = new AtomicLong();
+        final AtomicLong storedBytes = new AtomicLong();
+        volatile TermVector termVector = TermVector.NO;
+
+        FieldCost(String fieldName) {
+            this.fieldName = fieldName;
+        }
+        
+        /**
+         * Estimates term vector bytes as the token text plus one byte per 
+         * position and two per offset pair stored.
+         */
+        long estimateTermVectorBytes() {
+            if (termVector == TermVector.NO) {
+                return 0;
+            }
+            long perToken = 0;
+            if (termVector.withPositions()) {
+                perToken += 1;
+            }
+            if (termVector.withOffsets()) {
+                perToken += 2;
+            }
+            return tokenChars.get() + perToken * tokens.get();
+        }
+        
+    }
+    
+}
@@ -29,8 +29,10 @@ import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.DataFormatException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import org.apache.lucene.document.CompressionTools;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.Fieldable;
@@ -50,6 +52,7 @@ public class FieldDocFactory {
     private final ConcurrentMap<String, BlockingQueue<SoftReference<Fieldable>>> fieldCache = new ConcurrentHashMap<String, BlockingQueue<SoftReference<Fieldable>>>();
     private final BlockingQueue<SoftReference<Document>> docCache;
     private final int maxCacheSize;
+    private volatile FieldCostTracker costTracker;
     
     FieldDocFactory(Map<String, FieldParams> fieldParams) {
         this(fieldParams, Constant.DEFAULT_MAX_CACHE_SIZE);
@@ -73,24 +76,22 @@ public class FieldDocFactory {
      * value
      */
     public Fieldable createField(String fieldName, String fieldValue) {
-        BlockingQueue<SoftReference<Fieldable>> fields = fieldCache.get(fieldName);
-        if (fields == null) {
-            BlockingQueue<SoftReference<Fieldable>> newFields = new LinkedBlockingQueue<SoftReference<Fieldable>>(maxCacheSize);
-            fields = fieldCache.putIfAbsent(fieldName, newFields);
-            if (fields == null) {
-                fields = newFields;
-            }
-        }
-        Fieldable field;
-        SoftReference<Fieldable> fieldRef = fields.poll();
-        if (fieldRef == null) {
-            field = create(fieldName);
-        } else {
-            field = fieldRef.get();
-            if (field == null) {
-                field = create(fieldName);
-            }
-        }
+        return createField(fieldName, fieldValue, true);
+    }
+    
+    /**
+     * Returns a field as {@link #createField(java.lang.String, java.lang.String)}
+     * does, optionally without recording its value in the cost tracker, for 
+     * fields rebuilt from values which were already recorded when they were 
+     * first created (e.g. documents read back after being spilled to disk).
+     * @param fieldName the name of the field to create (or return from cache)
+     * @param fieldValue the (possibly numeric) value this field should contain
+     * @param recordCost whether to record the value in the cost tracker
+     * @return a new or recycled {@code Fieldable} with the specified name and 
+     * value
+     */
+    Fieldable createField(String fieldName, String fieldValue, boolean recordCost) {
+        Fieldable field = obtain(fieldName);
         FieldParams params = fieldParams.get(fieldName);
         try {
             switch (params.getType()) {
@@ -107,15 +108,71 @@ public class FieldDocFactory {
                     ((NumericField)field).setDoubleValue(Double.parseDouble(fieldValue));
                     break;
                 default:
-                    ((Field)field).setValue(fieldValue);
+                    if (field instanceof CompressedField) {
+                        ((CompressedField)field).setValue(fieldValue);
+                    } else {
+                        ((Field)field).setValue(fieldValue);
+                    }
             }
         } catch (NumberFormatException ex) {
             Logger.getLogger(FieldDocFactory.class.getName()).log(Level.WARNING, String.format("Unable to parse \"%s\" as %s for field %s. Adding as text.", fieldValue, params.getType(), fieldName), ex);
             ((Field)field).setValue(fieldValue);
         }
+        if (recordCost && costTracker != null) {
+            costTracker.recordValue(params, fieldValue, field);
+        }
        return field;
     }
     
+    /**
+     * Returns a field with the specified name whose value is already 
+     * compressed (e.g. read back from a spilled document), so it is not 
+     * compressed again. {@code text} may be {@code null} if the field is not
+     * indexed; it is decompressed if it is needed but missing. If the field 
+     * is not compressed according to the properties file, it is created from 
+     * the decompressed text instead.
+     * @param fieldName the name of the field to create (or return from cache)
+     * @param compressed the compressed value, as written by {@link CompressionTools}
+     * @param text the uncompressed value, or {@code null}
+     * @param recordCost whether to record the value in the cost tracker
+     * @return a new or recycled {@code Fieldable} with the specified name and 
+     * value
+     * @throws DataFormatException if the text is needed but {@code compressed}
+     * is not valid compressed text
+     */
+    Fieldable createCompressedField(String fieldName, byte[] compressed, String text, boolean recordCost) throws DataFormatException {
+        Fieldable field = obtain(fieldName);
+        FieldParams params = fieldParams.get(fieldName);
+        if (!(field instanceof CompressedField)) {
+            fieldCache.get(fieldName).offer(new SoftReference<Fieldable>(field));
+            return createField(fieldName, text != null ? text : CompressionTools.decompressString(compressed), recordCost);
+        }
+        if (text == null && params.getIndex() != Field.Index.NO) {
+            text = CompressionTools.decompressString(compressed);
+        }
+        ((CompressedField)field).setCompressedValue(compressed, text);
+        if (recordCost && costTracker != null) {
+            costTracker.recordValue(params, text, field);
+        }
+        return field;
+    }
+    
+    /**
+     * Compresses the values of the document's compressed fields (see 
+     * {@code luceneindexer.field.X.compress}), which hold plain text until 
+     * then. This is done once the document leaves the transform stage, so 
+     * {@link DocumentTransformer}s can still read them with 
+     * {@code Document.get()}.
+     * @param document the document whose fields to compress
+     */
+    void compress(Document document) {
+        for (Fieldable field : document.getFields()) {
+            if (field instanceof CompressedField) {
+                ((CompressedField)field).compress();
+            }
+        }
+    }
+    
     /**
      * Creates a new {@code Document} or returns one from cache. If the 
      * {@code Document} comes from cache, it is "certified like-new", containing 
@@ -150,7 +207,9 @@ public class FieldDocFactory {
         for (String fieldName : fieldNames) {
             BlockingQueue<SoftReference<Fieldable>> cache = fieldCache.get(fieldName);
             for (Fieldable field : document.getFieldables(fieldName)) {
-                cache.offer(new SoftReference<Fieldable>(field));
+                if (cache != null && (!field.isBinary() || field instanceof CompressedField)) {
+                    cache.offer(new SoftReference<Fieldable>(field));
+                }
             }
             document.removeFields(fieldName);
         }
@@ -158,10 +217,37 @@ public class FieldDocFactory {
         docCache.offer(new SoftReference<Document>(document));
     }
 
+    void setCostTracker(FieldCostTracker costTracker) {
+        this.costTracker = costTracker;
+    }
+    
+    FieldCostTracker getCostTracker() {
+        return costTracker;
+    }
+    
+    FieldType getFieldType(String fieldName) {
+        FieldParams params = fieldParams.get(fieldName);
+        return params != null ? params.getType() : FieldParams.getDefaultFieldType();
+    }
+
     Iterable<FieldParams> getFieldParams() {
         return Collections.unmodifiableCollection(fieldParams.values());
     }
     
+    private Fieldable obtain(String fieldName) {
+        BlockingQueue<SoftReference<Fieldable>> fields = fieldCache.get(fieldName);
+        if (fields == null) {
+            BlockingQueue<SoftReference<Fieldable>> newFields = new LinkedBlockingQueue<SoftReference<Fieldable>>(maxCacheSize);
+            fields = fieldCache.putIfAbsent(fieldName, newFields);
+            if (fields == null) {
+                fields = newFields;
+            }
+        }
+        SoftReference<Fieldable> fieldRef = fields.poll();
+        Fieldable field = fieldRef != null ? fieldRef.get() : null;
+        return field != null ? field : create(fieldName);
+    }
+    
     private Fieldable create(String fieldName) {
         FieldParams params = fieldParams.get(fieldName);
         if (params == null) {
@@ -172,6 +258,9 @@ public class FieldDocFactory {
             }
         }
         if (params.getType() == FieldType.TEXT) {
+            if (params.isCompress() && params.getStore() != Field.Store.NO) {
+                return new CompressedField(fieldName, params.getIndex(), params.getTermVector());
+            }
             return new Field(fieldName, "", params.getStore(), params.getIndex(), params.getTermVector());
         }
         return new NumericField(fieldName, params.getStore(), params.getIndex() != Field.Index.NO);
@@ -40,9 +40,10 @@ class FieldParams {
     private static TermVector DEFAULT_TERM_VECTOR = TermVector.NO;
     private static FieldType DEFAULT_FIELD_TYPE = FieldType.TEXT;
     private static Class<? extends Analyzer> DEFAULT_ANALYZER_CLASS = KeywordAnalyzer.class;
+    private static boolean DEFAULT_COMPRESS = false;
     
     public static FieldParams defaults(String fieldName) {
-        return new FieldParams(fieldName, DEFAULT_ANALYZER_CLASS, DEFAULT_STORE, DEFAULT_INDEX, DEFAULT_TERM_VECTOR, DEFAULT_FIELD_TYPE);
+        return new FieldParams(fieldName, DEFAULT_ANALYZER_CLASS, DEFAULT_STORE, DEFAULT_INDEX, DEFAULT_TERM_VECTOR, DEFAULT_FIELD_TYPE, DEFAULT_COMPRESS);
     }
     
     public static void setDefaults(Class<? extends Analyzer> analyzerClass, Store store, Index index, TermVector tv, FieldType type) {
@@ -73,6 +74,10 @@ class FieldParams {
         DEFAULT_FIELD_TYPE = type;
     }
     
+    public static void setDefaultCompress(boolean compress) {
+        DEFAULT_COMPRESS = compress;
+    }
+    
     public static Class<Analyzer> getDefaultAnalyzerClass() {
         return (Class<Analyzer>) DEFAULT_ANALYZER_CLASS;
     }
@@ -93,12 +98,17 @@ class FieldParams {
         return DEFAULT_FIELD_TYPE;
     }
     
+    public static boolean getDefaultCompress() {
+        return DEFAULT_COMPRESS;
+    }
+    
     public static Map<String, FieldParams> parseProperties(Properties properties) {
         try { setDefaultAnalyzerClass((Class<Analyzer>) Class.forName(properties.getProperty(Constant.PROP_DEFAULT_ANALYZER, DEFAULT_ANALYZER_CLASS.getName()))); } catch(Exception ex) {}
         try { setDefaultStore(Store.valueOf(properties.getProperty(Constant.PROP_DEFAULT_STORE, DEFAULT_STORE.toString()))); } catch(Exception ex) {}
         try { setDefaultIndex(Index.valueOf(properties.getProperty(Constant.PROP_DEFAULT_INDEX, DEFAULT_INDEX.toString()))); } catch(Exception ex) {}
         try { setDefaultTermVector(TermVector.valueOf(properties.getProperty(Constant.PROP_DEFAULT_TERMVECTOR, DEFAULT_TERM_VECTOR.toString()))); } catch(Exception ex) {}
         try { setDefaultFieldType(FieldType.valueOf(properties.getProperty(Constant.PROP_DEFAULT_FIELDTYPE, DEFAULT_FIELD_TYPE.toString()))); } catch(Exception ex) {}
+        setDefaultCompress(Boolean.parseBoolean(properties.getProperty(Constant.PROP_DEFAULT_COMPRESS, Boolean.toString(DEFAULT_COMPRESS))));
         
         Map<String, FieldParams> params = new HashMap<String, FieldParams>();
         for (String property : properties.stringPropertyNames()) {
@@ -113,6 +123,10 @@ class FieldParams {
                 try { builder.setIndex(Index.valueOf(properties.getProperty(Constant.PROP_PREFIX_FIELD + fieldName + Constant.PROP_SUFFIX_INDEX))); } catch (Exception ex) {}
                 try { builder.setTermVector(TermVector.valueOf(properties.getProperty(Constant.PROP_PREFIX_FIELD + fieldName + Constant.PROP_SUFFIX_TERMVECTOR))); } catch (Exception ex) {}
                 try { builder.setType(FieldType.valueOf(properties.getProperty(Constant.PROP_PREFIX_FIELD + fieldName + Constant.PROP_SUFFIX_FIELDTYPE))); } catch (Exception ex) {}
+                String compress = properties.getProperty(Constant.PROP_PREFIX_FIELD + fieldName + Constant.PROP_SUFFIX_COMPRESS);
+                if (compress != null) {
+                    builder.setCompress(Boolean.parseBoolean(compress));
+                }
                 params.put(fieldName, builder.build());
             }
         }
@@ -125,14 +139,20 @@ class FieldParams {
     private final Index index;
     private final TermVector tv;
     private final FieldType type;
+    private final boolean compress;
     
     public FieldParams(String fieldName, Class<? extends Analyzer> analyzerClass, Store store, Index index, TermVector tv, FieldType type) {
+        this(fieldName, analyzerClass, store, index, tv, type, false);
+    }
+    
+    public FieldParams(String fieldName, Class<? extends Analyzer> analyzerClass, Store store, Index index, TermVector tv, FieldType type, boolean compress) {
         this.fieldName = fieldName;
         this.analyzerClass = (Class<Analyzer>) analyzerClass;
         this.store = store;
         this.index = index;
         this.tv = tv;
         this.type = type;
+        this.compress = compress;
     }
     
     public String getFieldName() {
@@ -159,6 +179,14 @@ class FieldParams {
         return type;
     }
     
+    /**
+     * Returns whether this field's stored value should be compressed. Only 
+     * applies to stored {@link FieldType#TEXT} fields.
+     */
+    public boolean isCompress() {
+        return compress;
+    }
+    
     public static final class Builder {
         
         private final String fieldname;
@@ -167,6 +195,7 @@ class FieldParams {
         private Index index = null;
         private TermVector tv = null;
         private FieldType type = null;
+        private Boolean compress = null;
 
         public Builder(String fieldName) {
             this.fieldname = fieldName;
@@ -196,6 +225,11 @@ class FieldParams {
             this.type = type;
             return this;
         }
+
+        public Builder setCompress(boolean compress) {
+            this.compress = compress;
+            return this;
+        }
         
         public FieldParams build() {
             return new FieldParams(fieldname,
@@ -203,7 +237,8 @@ class FieldParams {
                     store != null ? store : DEFAULT_STORE,
                     index != null ? index : DEFAULT_INDEX,
                     tv != null ? tv : DEFAULT_TERM_VECTOR,
-                    type != null ? type : DEFAULT_FIELD_TYPE);
+                    type != null ? type : DEFAULT_FIELD_TYPE,
+                    compress != null ? compress : DEFAULT_COMPRESS);
         }
         
     }
@@ -0,0 +1,145 @@
+/**
+ * Copyright (C) 2014 Kno.e.sis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knoesis.lucene.indexer;
+
+import java.lang.management.ManagementFactory;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.knoesis.lucene.indexer.utils.PropUtils;
+
+/**
+ * Holds the separate write-rate limits for segment flushes, merges, and 
+ * forced merges of one index, and decides which applies to the current 
+ * thread. Merges are recognized by running on a {@link ThrottledMergeScheduler}
+ * thread, and are limited as forced merges while {@link #setForceMerging(boolean)}
+ * is on; all other writes (flushes and commits) are limited as flushes.
+ * <br/><br/>
+ * Each throttle is registered as an MBean named 
+ * {@code org.knoesis.lucene.indexer:type=IndexThrottle,dir=<index dir>}, so 
+ * the limits can be changed while indexing. It is unregistered when its 
+ * {@link RateLimitedDirectory} is closed, which the writers from 
+ * {@link IndexWriterFactory} do when they are closed.
+ */
+public class IndexThrottle implements IndexThrottleMBean {
+    
+    private static final String OBJECT_NAME = "org.knoesis.lucene.indexer:type=IndexThrottle,dir=";
+    
+    private final RateLimiter flush;
+    private final RateLimiter merge;
+    private final RateLimiter forceMerge;
+    private final ThreadLocal<Boolean> merging = new ThreadLocal<Boolean>();
+    private volatile boolean forceMerging = false;
+    private ObjectName objectName;
+
+    IndexThrottle(Properties properties) {
+        flush = new RateLimiter(PropUtils.getDouble(properties, Constant.PROP_THROTTLE_FLUSH_MB_PER_SEC, 0));
+        merge = new RateLimiter(PropUtils.getDouble(properties, Constant.PROP_THROTTLE_MERGE_MB_PER_SEC, 0));
+        forceMerge = new RateLimiter(PropUtils.getDouble(properties, Constant.PROP_THROTTLE_FORCE_MERGE_MB_PER_SEC, 0));
+    }
+    
+    /**
+     * Returns whether any write-rate limit is configured (including a limit of
+     * zero, which starts unlimited but can be adjusted later).
+     */
+    static boolean isConfigured(Properties properties) {
+        return properties.getProperty(Constant.PROP_THROTTLE_FLUSH_MB_PER_SEC) != null
+                || properties.getProperty(Constant.PROP_THROTTLE_MERGE_MB_PER_SEC) != null
+                || properties.getProperty(Constant.PROP_THROTTLE_FORCE_MERGE_MB_PER_SEC) != null;
+    }
+
+    public double getFlushMBPerSec() {
+        return flush.getMBPerSec();
+    }
+
+    public void setFlushMBPerSec(double mbPerSec) {
+        flush.setMBPerSec(mbPerSec);
+    }
+
+    public double getMergeMBPerSec() {
+        return merge.getMBPerSec();
+    }
+
+    public void setMergeMBPerSec(double mbPerSec) {
+        merge.setMBPerSec(mbPerSec);
+    }
+
+    public double getForceMergeMBPerSec() {
+        return forceMerge.getMBPerSec();
+    }
+
+    public void setForceMergeMBPerSec(double mbPerSec) {
+        forceMerge.setMBPerSec(mbPerSec);
+    }
+    
+    /**
+     * Sets whether merges are currently running on behalf of a forced merge.
+     * @param forceMerging 
+     */
+    void setForceMerging(boolean forceMerging) {
+        this.forceMerging = forceMerging;
+    }
+    
+    void beginMerge() {
+        merging.set(Boolean.TRUE);
+    }
+    
+    void endMerge() {
+        merging.remove();
+    }
+    
+    /**
+     * Returns the limiter which applies to writes from the current thread.
+     */
+    RateLimiter current() {
+        if (merging.get() != null) {
+            return forceMerging ? forceMerge : merge;
+        }
+        return flush;
+    }
+    
+    void register(String dir) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            objectName = new ObjectName(OBJECT_NAME + ObjectName.quote(dir));
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(this, objectName);
+        } catch (Exception ex) {
+            Logger.getLogger(IndexThrottle.class.getName()).log(Level.WARNING, "Failed to register IndexThrottle MBean", ex);
+        }
+    }
+    
+    void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            objectName = null;
+        } catch (Exception ex) {
+            Logger.getLogger(IndexThrottle.class.getName()).log(Level.WARNING, "Failed to unregister IndexThrottle MBean", ex);
+        }
+    }
+    
+}
@@ -0,0 +1,38 @@
+/**
+ * Copyright (C) 2014 Kno.e.sis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knoesis.lucene.indexer;
+
+/**
+ * Management interface of {@link IndexThrottle}, allowing the write-rate 
+ * limits of a running indexer to be inspected and adjusted via JMX. Rates are 
+ * in MB/s, where zero means unlimited.
+ */
+public interface IndexThrottleMBean {
+    
+    double getFlushMBPerSec();
+    
+    void setFlushMBPerSec(double mbPerSec);
+    
+    double getMergeMBPerSec();
+    
+    void setMergeMBPerSec(double mbPerSec);
+    
+    double getForceMergeMBPerSec();
+    
+    void setForceMergeMBPerSec(double mbPerSec);
+    
+}
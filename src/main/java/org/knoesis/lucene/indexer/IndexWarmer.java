@@ -0,0 +1,249 @@
+/**
+ * Copyright (C) 2014 Kno.e.sis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knoesis.lucene.indexer;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.queryParser.ParseException;
+import org.apache.lucene.queryParser.QueryParser;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Version;
+
+/**
+ * Optional finishing step that warms a newly built index for downstream 
+ * searchers. It runs the warm-up queries from {@code luceneindexer.warmup.queries}
+ * (one query per line, in Lucene query syntax) against the new index to report
+ * cold-start timings, and writes a {@link SortCache} file into the index 
+ * directory for each field in {@code luceneindexer.warmup.sortfields}, so 
+ * searchers can sort through {@link SortCacheComparatorSource} without 
+ * building the {@code FieldCache}. If heavy fields are split into a side 
+ * index, both are warmed together through {@link SplitIndex}.
+ */
+class IndexWarmer {
+    
+    private static final Logger log = Logger.getLogger(IndexWarmer.class.getName());
+    private static final int IO_BUFFER_SIZE = 1 << 16;
+    private static final int WARMUP_HITS = 10;
+    
+    static boolean isConfigured(Properties properties) {
+        return properties.getProperty(Constant.PROP_WARMUP_QUERIES) != null 
+                || properties.getProperty(Constant.PROP_WARMUP_SORT_FIELDS) != null;
+    }
+    
+    private final Properties properties;
+    private final FieldDocFactory fields;
+    private final File indexDir;
+
+    IndexWarmer(Properties properties, FieldDocFactory fields, File indexDir) {
+        this.properties = properties;
+        this.fields = fields;
+        this.indexDir = indexDir;
+    }
+    
+    /**
+     * Writes the sort caches, then runs the warm-up queries.
+     * @throws IOException 
+     */
+    void warm() throws IOException {
+        Directory directory = FSDirectory.open(indexDir);
+        try {
+            IndexReader reader = SplitIndexWriter.isConfigured(properties)
+                    ? SplitIndex.open(indexDir, SplitIndexWriter.getHeavyDir(properties, indexDir))
+                    : IndexReader.open(directory);
+            try {
+                List<String> sortFields = getSortFields();
+                for (String field : sortFields) {
+                    long start = System.currentTimeMillis();
+                    File file = writeSortCache(reader, field, fields.getFieldType(field), indexDir);
+                    System.out.format("Wrote sort cache for %s to %s in %d ms\n", field, file, System.currentTimeMillis() - start);
+                }
+                String queries = properties.getProperty(Constant.PROP_WARMUP_QUERIES);
+                if (queries != null) {
+                    runQueries(reader, new File(queries), sortFields);
+                }
+            } finally {
+                reader.close();
+            }
+        } finally {
+            directory.close();
+        }
+    }
+    
+    private List<String> getSortFields() {
+        List<String> sortFields = new ArrayList<String>();
+        String value = properties.getProperty(Constant.PROP_WARMUP_SORT_FIELDS);
+        if (value != null) {
+            for (String field : value.split(",")) {
+                if (field.trim().length() > 0) {
+                    sortFields.add(field.trim());
+                }
+            }
+        }
+        return sortFields;
+    }
+    
+    /**
+     * Runs each warm-up query by relevance and, if there are sort caches, 
+     * sorted by the first sort field through the new caches.
+     */
+    private void runQueries(IndexReader reader, File file, List<String> sortFields) throws IOException {
+        Analyzer analyzer;
+        try {
+            analyzer = IndexWriterFactory.createAnalyzer(properties, fields);
+        } catch (Exception ex) {
+            throw new IOException("Failed to create the query analyzer", ex);
+        }
+        Version version = Version.valueOf(properties.getProperty(Constant.PROP_LUCENE_VERSION));
+        QueryParser parser = new QueryParser(version, properties.getProperty(Constant.PROP_WARMUP_DEFAULT_FIELD), analyzer);
+        SortCacheComparatorSource comparators = new SortCacheComparatorSource(indexDir);
+        Sort sort = sortFields.isEmpty() ? null : new Sort(comparators.newSortField(sortFields.get(0), false));
+        IndexSearcher searcher = new IndexSearcher(reader);
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        int count = 0;
+        long start = System.currentTimeMillis();
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.length() == 0 || line.startsWith("#")) {
+                    continue;
+                }
+                Query query;
+                try {
+                    query = parser.parse(line);
+                } catch (ParseException ex) {
+                    log.log(Level.WARNING, "Skipping warm-up query " + line, ex);
+                    continue;
+                }
+                long queryStart = System.currentTimeMillis();
+                int hits = searcher.search(query, WARMUP_HITS).totalHits;
+                if (sort != null) {
+                    searcher.search(query, null, WARMUP_HITS, sort);
+                }
+                log.log(Level.FINE, "Warm-up query {0} matched {1} documents in {2} ms", 
+                        new Object[] { line, hits, System.currentTimeMillis() - queryStart });
+                count++;
+            }
+        } finally {
+            in.close();
+            searcher.close();
+            comparators.close();
+        }
+        System.out.format("Ran %d warm-up queries in %d ms\n", count, System.currentTimeMillis() - start);
+    }
+    
+    /**
+     * Writes the {@link SortCache} file for {@code field}, replacing any 
+     * previous one. The values are computed through the {@code FieldCache} 
+     * over the whole index, and then purged from it.
+     * @param reader a reader over the final, committed index
+     * @param field the sort field
+     * @param type the {@link FieldType} of the sort field
+     * @param indexDir the index directory
+     * @return the cache file written
+     * @throws IOException 
+     */
+    static File writeSortCache(IndexReader reader, String field, FieldType type, File indexDir) throws IOException {
+        File out = new File(indexDir, field + SortCache.FILE_SUFFIX);
+        File tmp = new File(indexDir, field + SortCache.FILE_SUFFIX + ".tmp");
+        int maxDoc = reader.maxDoc();
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), IO_BUFFER_SIZE));
+        try {
+            data.writeInt(SortCache.MAGIC);
+            data.writeInt(SortCache.VERSION);
+            data.writeByte(type.ordinal());
+            data.writeInt(maxDoc);
+            switch (type) {
+                case INT:
+                    data.writeInt(0);
+                    for (int value : FieldCache.DEFAULT.getInts(reader, field, FieldCache.NUMERIC_UTILS_INT_PARSER)) {
+                        data.writeInt(value);
+                    }
+                    break;
+                case LONG:
+                    data.writeInt(0);
+                    for (long value : FieldCache.DEFAULT.getLongs(reader, field, FieldCache.NUMERIC_UTILS_LONG_PARSER)) {
+                        data.writeLong(value);
+                    }
+                    break;
+                case FLOAT:
+                    data.writeInt(0);
+                    for (float value : FieldCache.DEFAULT.getFloats(reader, field, FieldCache.NUMERIC_UTILS_FLOAT_PARSER)) {
+                        data.writeFloat(value);
+                    }
+                    break;
+                case DOUBLE:
+                    data.writeInt(0);
+                    for (double value : FieldCache.DEFAULT.getDoubles(reader, field, FieldCache.NUMERIC_UTILS_DOUBLE_PARSER)) {
+                        data.writeDouble(value);
+                    }
+                    break;
+                default:
+                    FieldCache.StringIndex index = FieldCache.DEFAULT.getStringIndex(reader, field);
+                    data.writeInt(index.lookup.length - 1);
+                    for (int ord : index.order) {
+                        data.writeInt(ord);
+                    }
+                    byte[][] terms = new byte[index.lookup.length - 1][];
+                    int offset = 0;
+                    for (int i=0; i<terms.length; i++) {
+                        terms[i] = index.lookup[i + 1].getBytes("UTF-8");
+                        data.writeInt(offset);
+                        offset += terms[i].length;
+                    }
+                    data.writeInt(offset);
+                    for (byte[] term : terms) {
+                        data.write(term);
+                    }
+            }
+        } finally {
+            data.close();
+            FieldCache.DEFAULT.purge(reader);
+        }
+        if (tmp.length() > Integer.MAX_VALUE) {
+            tmp.delete();
+            throw new IOException("Sort cache for field " + field + " exceeds 2GB");
+        }
+        if (out.exists() && !out.delete()) {
+            throw new IOException("Failed to replace " + out);
+        }
+        if (!tmp.renameTo(out)) {
+            throw new IOException("Failed to rename " + tmp + " to " + out);
+        }
+        return out;
+    }
+    
+}
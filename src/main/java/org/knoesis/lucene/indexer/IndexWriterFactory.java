@@ -23,8 +23,10 @@ import java.util.Map;
 import java.util.Properties;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.PerFieldAnalyzerWrapper;
+import org.apache.lucene.index.CorruptIndexException;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LogByteSizeMergePolicy;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.Version;
@@ -37,14 +39,104 @@ import org.knoesis.lucene.indexer.utils.PropUtils;
 class IndexWriterFactory {
     
     public static IndexWriter createIndexWriter(Properties properties, FieldDocFactory fields, boolean forceOverwrite) throws Exception {
-        String luceneDir = properties.getProperty(Constant.PROP_LUCENE_DIR);
-        File file = new File(luceneDir);
+        return createIndexWriter(properties, fields, new File(properties.getProperty(Constant.PROP_LUCENE_DIR)), forceOverwrite);
+    }
+    
+    /**
+     * Creates an {@code IndexWriter} for the index in {@code file}, which 
+     * closes its {@code Directory} when it is closed or rolled back (unlike a
+     * plain {@code IndexWriter}), so the directory's {@link IndexThrottle} is
+     * unregistered along with it.
+     */
+    public static IndexWriter createIndexWriter(Properties properties, FieldDocFactory fields, File file, boolean forceOverwrite) throws Exception {
+        final Directory directory = openDirectory(properties, file);
+        try {
+            return new IndexWriter(directory, createConfig(properties, fields, directory, forceOverwrite)) {
+                @Override
+                public void close(boolean waitForMerges) throws CorruptIndexException, IOException {
+                    super.close(waitForMerges);
+                    directory.close();
+                }
+
+                @Override
+                public void rollback() throws IOException {
+                    super.rollback();
+                    directory.close();
+                }
+            };
+        } catch (Exception ex) {
+            directory.close();
+            throw ex;
+        }
+    }
+    
+    /**
+     * Creates a {@link SplitIndexWriter} for the index in {@code file}, which 
+     * writes the fields in {@code luceneindexer.split.fields} to a side index 
+     * in {@code heavyFile} (unless {@code luceneindexer.split.lightonly} is 
+     * set, in which case they are dropped and the side index is left as is).
+     * Like the writers from {@link #createIndexWriter(java.util.Properties, FieldDocFactory, java.io.File, boolean)},
+     * it closes its {@code Directory} when it is closed or rolled back.
+     */
+    static SplitIndexWriter createSplitIndexWriter(Properties properties, FieldDocFactory fields, File file, File heavyFile, boolean forceOverwrite) throws Exception {
+        IndexWriter heavyWriter = null;
+        if (!PropUtils.getBoolean(properties, Constant.PROP_SPLIT_LIGHT_ONLY)) {
+            heavyWriter = createIndexWriter(properties, fields, heavyFile, forceOverwrite);
+        }
+        Directory directory = openDirectory(properties, file);
+        try {
+            return new SplitIndexWriter(directory, createConfig(properties, fields, directory, forceOverwrite), heavyWriter, 
+                    SplitIndexWriter.getSplitFields(properties), PropUtils.getInt(properties, Constant.PROP_SPLIT_BUFFER_SIZE, Constant.DEFAULT_SPLIT_BUFFER_SIZE));
+        } catch (Exception ex) {
+            directory.close();
+            if (heavyWriter != null) {
+                heavyWriter.rollback();
+            }
+            throw ex;
+        }
+    }
+    
+    private static Directory openDirectory(Properties properties, File file) throws IOException {
         if(!file.exists()) {
             if (!file.mkdirs()) {
                 throw new IOException("Failed to create new Lucene index directory");
             }
         }
         Directory directory = FSDirectory.open(file);
+        if (IndexThrottle.isConfigured(properties)) {
+            IndexThrottle throttle = new IndexThrottle(properties);
+            throttle.register(file.getAbsolutePath());
+            directory = new RateLimitedDirectory(directory, throttle);
+        }
+        return directory;
+    }
+    
+    private static IndexWriterConfig createConfig(Properties properties, FieldDocFactory fields, Directory directory, boolean forceOverwrite) throws Exception {
+        Version version = Version.valueOf(properties.getProperty(Constant.PROP_LUCENE_VERSION));
+        Analyzer analyzer = createAnalyzer(properties, fields);
+        if (fields.getCostTracker() != null) {
+            analyzer = new CostTrackingAnalyzer(analyzer, fields.getCostTracker());
+        }
+        IndexWriterConfig config = new IndexWriterConfig(version, analyzer)
+                .setMaxThreadStates(PropUtils.getInt(properties, Constant.PROP_INDEXER_THREADS, Constant.DEFAULT_NUM_CONSUMERS))
+                .setOpenMode(forceOverwrite ? IndexWriterConfig.OpenMode.CREATE : IndexWriterConfig.OpenMode.CREATE_OR_APPEND)
+                .setRAMBufferSizeMB(PropUtils.getInt(properties, Constant.PROP_RAM_BUFFER_SIZE_MB, (int) IndexWriterConfig.DEFAULT_RAM_BUFFER_SIZE_MB));
+        if (properties.getProperty(Constant.PROP_SORT_FIELD) != null || SplitIndexWriter.isConfigured(properties)) {
+            // only merge adjacent segments, so the sorted document order (or 
+            // the docID alignment with the split side index) is kept
+            config.setMergePolicy(new LogByteSizeMergePolicy());
+        }
+        if (directory instanceof RateLimitedDirectory) {
+            config.setMergeScheduler(new ThrottledMergeScheduler(((RateLimitedDirectory) directory).getThrottle()));
+        }
+        return config;
+    }
+    
+    /**
+     * Creates the per-field {@code Analyzer} configured by the properties file,
+     * as used for indexing (e.g. to parse queries against the new index).
+     */
+    static Analyzer createAnalyzer(Properties properties, FieldDocFactory fields) throws Exception {
         Version version = Version.valueOf(properties.getProperty(Constant.PROP_LUCENE_VERSION));
         Class<Analyzer> analyzerClass = (Class<Analyzer>) Class.forName(properties.getProperty(Constant.PROP_DEFAULT_ANALYZER));
         Analyzer defaultAnalyzer = createAnalyzer(analyzerClass, version);
@@ -52,12 +144,7 @@ class IndexWriterFactory {
         for (FieldParams field : fields.getFieldParams()) {
             perField.put(field.getFieldName(), createAnalyzer(field.getAnalyzerClass(), version));
         }
-        Analyzer analyzer = new PerFieldAnalyzerWrapper(defaultAnalyzer, perField);
-        IndexWriterConfig config = new IndexWriterConfig(version, analyzer)
-                .setMaxThreadStates(PropUtils.getInt(properties, Constant.PROP_INDEXER_THREADS, Constant.DEFAULT_NUM_CONSUMERS))
-                .setOpenMode(forceOverwrite ? IndexWriterConfig.OpenMode.CREATE : IndexWriterConfig.OpenMode.CREATE_OR_APPEND)
-                .setRAMBufferSizeMB(PropUtils.getInt(properties, Constant.PROP_RAM_BUFFER_SIZE_MB, (int) IndexWriterConfig.DEFAULT_RAM_BUFFER_SIZE_MB));
-        return new IndexWriter(directory, config);
+        return new PerFieldAnalyzerWrapper(defaultAnalyzer, perField);
     }
     
     private static Analyzer createAnalyzer(Class<? extends Analyzer> analyzerClass, Version version) throws InstantiationException, IllegalAccessException {
@@ -0,0 +1,493 @@
+/**
+ * Copyright (C) 2014 Kno.e.sis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knoesis.lucene.indexer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+import org.knoesis.lucene.indexer.utils.PropUtils;
+import org.knoesis.util.concurrent.producerconsumer.Consumer;
+
+/**
+ * A long-running alternative to {@link LuceneIndexer} which keeps the 
+ * {@code IndexWriter}, {@link FieldDocFactory} and {@link Indexer}s alive and 
+ * accepts documents over a local socket. Documents are committed once 
+ * {@code luceneindexer.daemon.commitdocs} documents have been added or 
+ * {@code luceneindexer.daemon.commitintervalms} has elapsed, whichever comes 
+ * first, and a near-real-time searcher over the writer is refreshed every 
+ * {@code luceneindexer.daemon.refreshms}, so new documents become searchable 
+ * well before they are committed.
+ * <br/><br/>
+ * If {@code luceneindexer.split.fields} is set, documents are written 
+ * through a {@link SplitIndexWriter}, and the side index is committed before
+ * the main index each time. The near-real-time searcher only sees the main 
+ * index. {@code luceneindexer.split.lightonly} is rejected, since dropping 
+ * the heavy fields of new documents would misalign the two indexes.
+ * <br/><br/>
+ * The wire format of each connection is a sequence of requests, each starting
+ * with an {@code int}:
+ *  <ul>
+ *      <li>{@code n >= 0}: a batch of {@code n} documents follows, each in the
+ *      {@link DocumentCodec} format. The daemon replies with an {@code int} 
+ *      holding the number of documents accepted.</li>
+ *      <li>{@code -1}: a commit request. The daemon waits for all accepted 
+ *      documents to be indexed, commits, and replies with an {@code int} 
+ *      holding the number of documents in the index.</li>
+ *  </ul>
+ * Documents whose values add up to more than 
+ * {@code luceneindexer.daemon.maxdocumentbytes} are rejected and the 
+ * connection is closed. {@link IndexingDaemonClient} implements the client 
+ * side of this protocol.
+ * <br/><br/>
+ * If a transform or indexer thread fails, the daemon stops: queued documents 
+ * are discarded, further documents are refused, commits throw, and 
+ * {@link #shutdown()} rolls back to the last commit.
+ */
+public class IndexingDaemon {
+    
+    static final int REQUEST_COMMIT = -1;
+    
+    private static final Logger LOG = Logger.getLogger(IndexingDaemon.class.getName());
+    
+    private final Properties properties;
+    private final FieldDocFactory fields;
+    private final IndexWriter writer;
+    private final SearcherManager searcherManager;
+    private final DocumentQueue queue;
+    private final DocumentQueue indexQueue;
+    private final List<Thread> transformThreads = new ArrayList<Thread>();
+    private final List<Thread> indexerThreads = new ArrayList<Thread>();
+    private final ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor();
+    private final ScheduledExecutorService committer = Executors.newSingleThreadScheduledExecutor();
+    private final AtomicBoolean commitScheduled = new AtomicBoolean();
+    private final ExecutorService connections = Executors.newCachedThreadPool();
+    private final Set<Socket> sockets = Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+    private final AtomicLong uncommitted = new AtomicLong();
+    private final AtomicLong commitsStarted = new AtomicLong();
+    private final Object commitLock = new Object();
+    private final int commitDocs;
+    private final long commitIntervalMs;
+    private final int maxDocumentBytes;
+    private volatile long lastCommit = System.currentTimeMillis();
+    private volatile long commitsCompleted = 0;
+    private volatile Throwable failure = null;
+    private ServerSocket serverSocket;
+    private Thread acceptThread;
+
+    public IndexingDaemon(Properties properties, boolean forceOverwrite) throws Exception {
+        this.properties = properties;
+        int bufferSize = PropUtils.getInt(properties, Constant.PROP_DOC_BUFFER_SIZE, Integer.MAX_VALUE);
+        int numIndexerThreads = PropUtils.getInt(properties, Constant.PROP_INDEXER_THREADS, Constant.DEFAULT_NUM_CONSUMERS);
+        String indexerClassName = properties.getProperty(Constant.PROP_INDEXER_CLASS);
+        commitDocs = PropUtils.getInt(properties, Constant.PROP_DAEMON_COMMIT_DOCS, Constant.DEFAULT_DAEMON_COMMIT_DOCS);
+        commitIntervalMs = PropUtils.getInt(properties, Constant.PROP_DAEMON_COMMIT_INTERVAL_MS, Constant.DEFAULT_DAEMON_COMMIT_INTERVAL_MS);
+        maxDocumentBytes = PropUtils.getInt(properties, Constant.PROP_DAEMON_MAX_DOCUMENT_BYTES, Constant.DEFAULT_DAEMON_MAX_DOCUMENT_BYTES);
+        
+        fields = new FieldDocFactory(FieldParams.parseProperties(properties), PropUtils.getInt(properties, Constant.PROP_DOC_FIELD_CACHE_SIZE, Constant.DEFAULT_MAX_CACHE_SIZE));
+        if (SplitIndexWriter.isConfigured(properties)) {
+            if (PropUtils.getBoolean(properties, Constant.PROP_SPLIT_LIGHT_ONLY)) {
+                throw new IllegalArgumentException("Rebuilding only the light index is not supported by the daemon");
+            }
+            File dir = new File(properties.getProperty(Constant.PROP_LUCENE_DIR));
+            writer = IndexWriterFactory.createSplitIndexWriter(properties, fields, dir, SplitIndexWriter.getHeavyDir(properties, dir), forceOverwrite);
+        } else {
+            writer = IndexWriterFactory.createIndexWriter(properties, fields, forceOverwrite);
+        }
+        if (PropUtils.getBoolean(properties, Constant.PROP_VERBOSE)) {
+            writer.setInfoStream(System.out);
+        }
+        // an initial commit makes a newly created index visible to readers
+        commitWriter();
+        searcherManager = new SearcherManager(writer, true, new SearcherFactory());
+        
+        queue = new DocumentQueue(bufferSize);
+        if (TransformStage.isConfigured(properties)) {
+            indexQueue = new DocumentQueue(PropUtils.getInt(properties, Constant.PROP_TRANSFORM_BUFFER_SIZE, bufferSize));
+            List<Consumer<Document>> workers = new TransformStage(properties, fields, indexQueue).getWorkers();
+            for (int i=0; i<workers.size(); i++) {
+                final Consumer<Document> worker = workers.get(i);
+                transformThreads.add(new Thread(new Runnable() {
+                    public void run() {
+                        try {
+                            worker.consume(queue);
+                        } catch (Throwable t) {
+                            queue.release();
+                            fail(t);
+                        }
+                    }
+                }, "transformer-" + i));
+            }
+        } else {
+            indexQueue = queue;
+        }
+        Class<Indexer> indexerClass = (Class<Indexer>) Class.forName(indexerClassName);
+        for (int i=0; i<numIndexerThreads; i++) {
+            final Indexer indexer = indexerClass.newInstance();
+            indexer.init(writer, fields, properties);
+            indexerThreads.add(new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        indexer.consume(indexQueue);
+                    } catch (Throwable t) {
+                        indexQueue.release();
+                        fail(t);
+                    }
+                }
+            }, "indexer-" + i));
+        }
+    }
+    
+    /**
+     * Starts the indexer threads and the commit and refresh schedule. 
+     * Documents can then be added via {@link #add(org.apache.lucene.document.Document)}, 
+     * or over a socket once {@link #listen()} is called.
+     */
+    public void start() {
+        for (Thread thread : transformThreads) {
+            thread.start();
+        }
+        for (Thread thread : indexerThreads) {
+            thread.start();
+        }
+        long refreshMs = PropUtils.getInt(properties, Constant.PROP_DAEMON_REFRESH_MS, Constant.DEFAULT_DAEMON_REFRESH_MS);
+        // refreshes run on their own thread, so a slow commit does not hold 
+        // back new documents from searchers
+        refresher.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    searcherManager.maybeRefresh();
+                } catch (Exception ex) {
+                    LOG.log(Level.SEVERE, "Failed to refresh searcher", ex);
+                }
+            }
+        }, refreshMs, refreshMs, TimeUnit.MILLISECONDS);
+        committer.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    if (failure == null && uncommitted.get() > 0 && System.currentTimeMillis() - lastCommit >= commitIntervalMs) {
+                        commit();
+                    }
+                } catch (Exception ex) {
+                    LOG.log(Level.SEVERE, "Failed to commit index", ex);
+                }
+            }
+        }, refreshMs, refreshMs, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Begins accepting connections on {@code luceneindexer.daemon.host}:{@code luceneindexer.daemon.port}.
+     * @throws IOException 
+     */
+    public void listen() throws IOException {
+        String host = properties.getProperty(Constant.PROP_DAEMON_HOST, Constant.DEFAULT_DAEMON_HOST);
+        int port = PropUtils.getInt(properties, Constant.PROP_DAEMON_PORT, Constant.DEFAULT_DAEMON_PORT);
+        serverSocket = new ServerSocket(port, 0, InetAddress.getByName(host));
+        acceptThread = new Thread(new Runnable() {
+            public void run() {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        final Socket socket = serverSocket.accept();
+                        sockets.add(socket);
+                        try {
+                            connections.execute(new Runnable() {
+                                public void run() {
+                                    handle(socket);
+                                }
+                            });
+                        } catch (RejectedExecutionException ex) {
+                            // shutting down
+                            closeConnection(socket);
+                        }
+                    } catch (SocketException ex) {
+                        // server socket closed by shutdown()
+                    } catch (IOException ex) {
+                        LOG.log(Level.WARNING, "Failed to accept connection", ex);
+                    }
+                }
+            }
+        }, "indexing-daemon-accept");
+        acceptThread.start();
+        System.out.format("Indexing daemon listening on %s:%d\n", host, port);
+    }
+    
+    /**
+     * Queues a document for indexing, blocking while the document buffer is 
+     * full. The document should have been obtained from {@link #getFieldDocFactory()}.
+     * @param document the document to index
+     * @throws InterruptedException 
+     * @throws IllegalStateException if indexing has failed
+     */
+    public void add(Document document) throws InterruptedException {
+        if (failure != null) {
+            throw new IllegalStateException("Indexing daemon has failed", failure);
+        }
+        queue.put(document);
+        // at most one commit is waiting to run at any time
+        if (uncommitted.incrementAndGet() >= commitDocs && commitScheduled.compareAndSet(false, true)) {
+            committer.execute(new Runnable() {
+                public void run() {
+                    commitScheduled.set(false);
+                    try {
+                        if (uncommitted.get() >= commitDocs) {
+                            commit();
+                        }
+                    } catch (Exception ex) {
+                        LOG.log(Level.SEVERE, "Failed to commit index", ex);
+                    }
+                }
+            });
+        }
+    }
+    
+    /**
+     * Waits until all documents queued so far have been added to the 
+     * {@code IndexWriter}, then commits them (and any added meanwhile). 
+     * Documents queued after this call is made are not waited for.
+     * @throws InterruptedException
+     * @throws IOException if the commit fails, or indexing has failed
+     */
+    public void commit() throws InterruptedException, IOException {
+        synchronized (commitLock) {
+            long number = commitsStarted.incrementAndGet();
+            long pending = uncommitted.get();
+            awaitProcessed();
+            checkFailure();
+            commitWriter();
+            uncommitted.addAndGet(-pending);
+            lastCommit = System.currentTimeMillis();
+            commitsCompleted = number;
+        }
+    }
+    
+    /**
+     * Makes all documents added so far visible to searchers returned by 
+     * {@link #acquireSearcher()}, without committing.
+     * @throws InterruptedException
+     * @throws IOException 
+     */
+    public void refresh() throws InterruptedException, IOException {
+        awaitProcessed();
+        checkFailure();
+        searcherManager.maybeRefresh();
+    }
+    
+    /**
+     * Returns a near-real-time searcher over the index being written, which 
+     * must be released via {@link #releaseSearcher(org.apache.lucene.search.IndexSearcher)}.
+     * @return the current searcher
+     */
+    public IndexSearcher acquireSearcher() {
+        return searcherManager.acquire();
+    }
+    
+    public void releaseSearcher(IndexSearcher searcher) throws IOException {
+        searcherManager.release(searcher);
+    }
+    
+    public FieldDocFactory getFieldDocFactory() {
+        return fields;
+    }
+    
+    /**
+     * Returns the number of commits started so far by {@link #commit()}. 
+     * Documents added after this is called are included in every later 
+     * commit, i.e. once {@link #getCommitsCompleted()} exceeds it.
+     */
+    long getCommitsStarted() {
+        return commitsStarted.get();
+    }
+    
+    /**
+     * Returns the number of the last commit completed by {@link #commit()}.
+     */
+    long getCommitsCompleted() {
+        return commitsCompleted;
+    }
+    
+    boolean hasFailed() {
+        return failure != null;
+    }
+    
+    /**
+     * Stops accepting connections, indexes all queued documents, commits, and 
+     * closes the index. Open connections stop reading further requests; a 
+     * batch which is still being received after 
+     * {@code luceneindexer.daemon.shutdowntimeoutms} is cut off, and only the 
+     * documents of it received so far are indexed. If indexing has failed, 
+     * the documents added since the last commit are rolled back instead.
+     * @throws InterruptedException
+     * @throws IOException if indexing has failed, or the final commit fails
+     */
+    public void shutdown() throws InterruptedException, IOException {
+        if (serverSocket != null) {
+            serverSocket.close();
+        }
+        connections.shutdown();
+        // idle connections are blocked reading the next request, which then 
+        // sees the end of the stream
+        for (Socket socket : sockets) {
+            try {
+                socket.shutdownInput();
+            } catch (IOException ex) {
+                closeConnection(socket);
+            }
+        }
+        long timeoutMs = PropUtils.getInt(properties, Constant.PROP_DAEMON_SHUTDOWN_TIMEOUT_MS, Constant.DEFAULT_DAEMON_SHUTDOWN_TIMEOUT_MS);
+        if (!connections.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS)) {
+            LOG.log(Level.WARNING, "Closing {0} connections still open after {1} ms", new Object[] { sockets.size(), timeoutMs });
+            for (Socket socket : sockets) {
+                closeConnection(socket);
+            }
+            connections.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS);
+        }
+        refresher.shutdown();
+        committer.shutdown();
+        refresher.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        committer.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        queue.close();
+        for (Thread thread : transformThreads) {
+            thread.join();
+        }
+        indexQueue.close();
+        for (Thread thread : indexerThreads) {
+            thread.join();
+        }
+        searcherManager.close();
+        if (failure != null) {
+            writer.rollback();
+            checkFailure();
+        }
+        commitWriter();
+        writer.close();
+    }
+    
+    /**
+     * Stops indexing after a transform or indexer thread has failed: queued 
+     * documents are discarded, later additions are refused, and commits 
+     * throw, rather than waiting forever for documents which will never be 
+     * indexed. The daemon must be shut down and restarted.
+     */
+    private void fail(Throwable t) {
+        // not commitLock, which a commit holds while waiting for documents
+        synchronized (this) {
+            if (failure == null) {
+                failure = t;
+                LOG.log(Level.SEVERE, "Indexing failed; the daemon no longer accepts documents and must be restarted", t);
+            }
+        }
+        queue.abort();
+        indexQueue.abort();
+    }
+    
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException("Indexing daemon has failed", failure);
+        }
+    }
+    
+    /**
+     * Commits the index, after the side index if there is one.
+     */
+    private void commitWriter() throws IOException {
+        if (writer instanceof SplitIndexWriter) {
+            ((SplitIndexWriter) writer).commitHeavy();
+        }
+        writer.prepareCommit();
+        writer.commit();
+    }
+    
+    /**
+     * Waits until every document queued so far has passed through the 
+     * transform stage (if any) and been added to the {@code IndexWriter}, or 
+     * indexing has failed.
+     */
+    private void awaitProcessed() throws InterruptedException {
+        queue.awaitProcessed();
+        if (indexQueue != queue) {
+            indexQueue.awaitProcessed();
+        }
+    }
+    
+    private void handle(Socket socket) {
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            while (true) {
+                int count;
+                try {
+                    count = in.readInt();
+                } catch (EOFException ex) {
+                    break;
+                }
+                if (count == REQUEST_COMMIT) {
+                    commit();
+                    out.writeInt(writer.numDocs());
+                } else if (count >= 0) {
+                    for (int i=0; i<count; i++) {
+                        add(DocumentCodec.read(in, fields, maxDocumentBytes));
+                    }
+                    out.writeInt(count);
+                } else {
+                    throw new IOException("Unknown request " + count);
+                }
+                out.flush();
+            }
+        } catch (Exception ex) {
+            LOG.log(Level.WARNING, "Closing connection from " + socket.getRemoteSocketAddress(), ex);
+        } finally {
+            closeConnection(socket);
+        }
+    }
+    
+    private void closeConnection(Socket socket) {
+        sockets.remove(socket);
+        try {
+            socket.close();
+        } catch (IOException ex) {
+            LOG.log(Level.FINE, "Failed to close connection", ex);
+        }
+    }
+    
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 2014 Kno.e.sis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knoesis.lucene.indexer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Collection;
+import org.apache.lucene.document.Document;
+
+/**
+ * Sends documents to a running {@link IndexingDaemon} over its socket 
+ * protocol. Only the names and string or binary values of each document's 
+ * fields (and its boost) are sent; the daemon rebuilds the fields with the 
+ * settings from its own properties file. Instances are not thread-safe.
+ */
+public class IndexingDaemonClient implements Closeable {
+    
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    /**
+     * Connects to the daemon listening on {@code host}:{@code port}.
+     * @throws IOException 
+     */
+    public IndexingDaemonClient(String host, int port) throws IOException {
+        socket = new Socket(host, port);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+    
+    /**
+     * Sends a batch of documents, returning once the daemon has queued them 
+     * for indexing.
+     * @param documents the documents to index
+     * @return the number of documents accepted
+     * @throws IOException 
+     */
+    public int add(Collection<Document> documents) throws IOException {
+        out.writeInt(documents.size());
+        for (Document document : documents) {
+            DocumentCodec.write(document, out);
+        }
+        out.flush();
+        return in.readInt();
+    }
+    
+    /**
+     * Asks the daemon to index and commit every document it has accepted so 
+     * far, from any connection.
+     * @return the number of documents in the index after the commit
+     * @throws IOException 
+     */
+    public int commit() throws IOException {
+        out.writeInt(IndexingDaemon.REQUEST_COMMIT);
+        out.flush();
+        return in.readInt();
+    }
+
+    public void close() throws IOException {
+        socket.close();
+    }
+    
+}
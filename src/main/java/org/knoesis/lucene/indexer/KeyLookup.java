@@ -0,0 +1,194 @@
+/**
+ * Copyright (C) 2014 Kno.e.sis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knoesis.lucene.indexer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Memory-mapped lookups between the values of a unique key field (e.g. PMID) 
+ * and Lucene document IDs, read from the file written into the index directory
+ * when {@code luceneindexer.keylookup.field} is set. Opening a lookup costs 
+ * almost nothing, since the file is paged in by the OS as it is searched 
+ * rather than loaded onto the heap. The lookup is only valid for the index 
+ * version it was written for. Instances are thread-safe.
+ * <br/><br/>
+ * The file ({@code <field>.keylookup}) is laid out as:
+ *  <ul>
+ *      <li>a header: {@code int} magic, {@code int} version, {@code byte} key
+ *      type (long or string), {@code int} number of keys, {@code int} 
+ *      {@code maxDoc};</li>
+ *      <li>the forward table: one ({@code long}, {@code int} docID) entry per
+ *      key, sorted by key, where the {@code long} is the key itself for 
+ *      numeric fields, or the offset of the key in the data section for 
+ *      string fields. If a key occurs in several documents, the highest docID
+ *      is kept;</li>
+ *      <li>the reverse table: one {@code int} per docID, holding the index of 
+ *      its key in the forward table (or -1);</li>
+ *      <li>the data section, holding each string key as an {@code int} length 
+ *      and UTF-8 bytes.</li>
+ *  </ul>
+ * A single file is limited to 2GB, which is enough for about 100 million 
+ * documents with short keys.
+ */
+public class KeyLookup implements Closeable {
+    
+    static final String FILE_SUFFIX = ".keylookup";
+    static final int MAGIC = 0x4b4c4b50;
+    static final int VERSION = 1;
+    static final byte TYPE_LONG = 0;
+    static final byte TYPE_STRING = 1;
+    static final int HEADER_BYTES = 4 + 4 + 1 + 4 + 4;
+    static final int ENTRY_BYTES = 8 + 4;
+    
+    /**
+     * Opens the lookup for {@code field} in the given index directory.
+     * @param indexDir the Lucene index directory
+     * @param field the key field
+     * @return the opened lookup
+     * @throws IOException if the file is missing or malformed
+     */
+    public static KeyLookup open(File indexDir, String field) throws IOException {
+        return new KeyLookup(new File(indexDir, field + FILE_SUFFIX));
+    }
+    
+    private final RandomAccessFile file;
+    private final ByteBuffer buffer;
+    private final byte type;
+    private final int count;
+    private final int maxDoc;
+    private final int reverseOffset;
+    private final int dataOffset;
+
+    KeyLookup(File path) throws IOException {
+        file = new RandomAccessFile(path, "r");
+        try {
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("Not a version " + VERSION + " key lookup file: " + path);
+            }
+            type = buffer.get(8);
+            count = buffer.getInt(9);
+            maxDoc = buffer.getInt(13);
+            reverseOffset = HEADER_BYTES + count * ENTRY_BYTES;
+            dataOffset = reverseOffset + maxDoc * 4;
+        } catch (IOException ex) {
+            file.close();
+            throw ex;
+        }
+    }
+    
+    /**
+     * Returns the number of distinct keys.
+     */
+    public int size() {
+        return count;
+    }
+    
+    /**
+     * Returns the ID of the document with the given numeric key, or -1 if there
+     * is none.
+     */
+    public int getDocId(long key) {
+        if (type != TYPE_LONG) {
+            return getDocId(Long.toString(key));
+        }
+        int lo = 0;
+        int hi = count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long midKey = buffer.getLong(entryOffset(mid));
+            if (midKey < key) {
+                lo = mid + 1;
+            } else if (midKey > key) {
+                hi = mid - 1;
+            } else {
+                return buffer.getInt(entryOffset(mid) + 8);
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Returns the ID of the document with the given key, or -1 if there is 
+     * none.
+     */
+    public int getDocId(String key) {
+        if (type == TYPE_LONG) {
+            try {
+                return getDocId(Long.parseLong(key.trim()));
+            } catch (NumberFormatException ex) {
+                return -1;
+            }
+        }
+        int lo = 0;
+        int hi = count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = readString(mid).compareTo(key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return buffer.getInt(entryOffset(mid) + 8);
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Returns the key of the given document, or {@code null} if it has none.
+     */
+    public String getKey(int docId) {
+        if (docId < 0 || docId >= maxDoc) {
+            return null;
+        }
+        int entry = buffer.getInt(reverseOffset + docId * 4);
+        if (entry < 0) {
+            return null;
+        }
+        return type == TYPE_LONG ? Long.toString(buffer.getLong(entryOffset(entry))) : readString(entry);
+    }
+
+    public void close() throws IOException {
+        file.close();
+    }
+    
+    private int entryOffset(int entry) {
+        return HEADER_BYTES + entry * ENTRY_BYTES;
+    }
+    
+    private String readString(int entry) {
+        int offset = dataOffset + (int) buffer.getLong(entryOffset(entry));
+        byte[] bytes = new byte[buffer.getInt(offset)];
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset + 4);
+        view.get(bytes);
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+    
+}
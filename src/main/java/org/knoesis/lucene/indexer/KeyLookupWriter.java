@@ -0,0 +1,178 @@
+/**
+ * Copyright (C) 2014 Kno.e.sis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knoesis.lucene.indexer;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.util.NumericUtils;
+
+/**
+ * Writes the {@link KeyLookup} file for a key field of a committed index. Keys
+ * are taken from the field's indexed terms, so the field must be indexed 
+ * without analysis (or as an {@code INT} or {@code LONG} {@link FieldType}), 
+ * but need not be stored. Terms come out of the {@code TermEnum} already 
+ * sorted, so the forward table is streamed straight to disk.
+ */
+class KeyLookupWriter {
+    
+    private static final int IO_BUFFER_SIZE = 1 << 16;
+    
+    /**
+     * Writes the lookup for {@code field} into {@code indexDir}, replacing any
+     * previous one.
+     * @param reader a reader over the final, committed index
+     * @param field the key field
+     * @param type the {@link FieldType} of the key field
+     * @param indexDir the index directory
+     * @return the lookup file written
+     * @throws IOException 
+     */
+    static File write(IndexReader reader, String field, FieldType type, File indexDir) throws IOException {
+        if (type == FieldType.FLOAT || type == FieldType.DOUBLE) {
+            throw new IllegalArgumentException("Key lookup is not supported for " + type + " field " + field);
+        }
+        boolean numeric = type == FieldType.INT || type == FieldType.LONG;
+        File out = new File(indexDir, field + KeyLookup.FILE_SUFFIX);
+        File tmp = new File(indexDir, field + KeyLookup.FILE_SUFFIX + ".tmp");
+        File data = new File(indexDir, field + KeyLookup.FILE_SUFFIX + ".data");
+        int maxDoc = reader.maxDoc();
+        int[] reverse = new int[maxDoc];
+        Arrays.fill(reverse, -1);
+        int count = 0;
+        int duplicates = 0;
+        
+        DataOutputStream main = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), IO_BUFFER_SIZE));
+        DataOutputStream strings = numeric ? null : new DataOutputStream(new BufferedOutputStream(new FileOutputStream(data), IO_BUFFER_SIZE));
+        TermEnum terms = reader.terms(new Term(field, ""));
+        TermDocs termDocs = reader.termDocs();
+        try {
+            main.writeInt(KeyLookup.MAGIC);
+            main.writeInt(KeyLookup.VERSION);
+            main.writeByte(numeric ? KeyLookup.TYPE_LONG : KeyLookup.TYPE_STRING);
+            main.writeInt(0);
+            main.writeInt(maxDoc);
+            long dataOffset = 0;
+            do {
+                Term term = terms.term();
+                if (term == null || !term.field().equals(field)) {
+                    break;
+                }
+                if (term.text().length() == 0) {
+                    continue;
+                }
+                long key;
+                if (type == FieldType.LONG) {
+                    // only full-precision terms, which sort before all others
+                    if (term.text().charAt(0) != NumericUtils.SHIFT_START_LONG) {
+                        break;
+                    }
+                    key = NumericUtils.prefixCodedToLong(term.text());
+                } else if (type == FieldType.INT) {
+                    if (term.text().charAt(0) != NumericUtils.SHIFT_START_INT) {
+                        break;
+                    }
+                    key = NumericUtils.prefixCodedToInt(term.text());
+                } else {
+                    key = dataOffset;
+                }
+                int docId = -1;
+                termDocs.seek(terms);
+                while (termDocs.next()) {
+                    if (docId >= 0) {
+                        duplicates++;
+                    }
+                    docId = termDocs.doc();
+                    reverse[docId] = count;
+                }
+                if (docId < 0) {
+                    continue;
+                }
+                if (!numeric) {
+                    byte[] bytes = term.text().getBytes("UTF-8");
+                    strings.writeInt(bytes.length);
+                    strings.write(bytes);
+                    dataOffset += 4 + bytes.length;
+                }
+                main.writeLong(key);
+                main.writeInt(docId);
+                count++;
+            } while (terms.next());
+            for (int i=0; i<maxDoc; i++) {
+                main.writeInt(reverse[i]);
+            }
+        } finally {
+            terms.close();
+            termDocs.close();
+            main.close();
+            if (strings != null) {
+                strings.close();
+            }
+        }
+        
+        RandomAccessFile file = new RandomAccessFile(tmp, "rw");
+        try {
+            file.seek(9);
+            file.writeInt(count);
+            if (!numeric) {
+                FileChannel in = new FileInputStream(data).getChannel();
+                try {
+                    long position = file.length();
+                    long remaining = in.size();
+                    while (remaining > 0) {
+                        long transferred = file.getChannel().transferFrom(in, position, remaining);
+                        position += transferred;
+                        remaining -= transferred;
+                    }
+                } finally {
+                    in.close();
+                }
+            }
+            if (file.length() > Integer.MAX_VALUE) {
+                throw new IOException("Key lookup for field " + field + " exceeds 2GB");
+            }
+        } finally {
+            file.close();
+            data.delete();
+        }
+        if (out.exists() && !out.delete()) {
+            throw new IOException("Failed to replace " + out);
+        }
+        if (!tmp.renameTo(out)) {
+            throw new IOException("Failed to rename " + tmp + " to " + out);
+        }
+        if (duplicates > 0) {
+            Logger.getLogger(KeyLookupWriter.class.getName()).log(Level.WARNING, "{0} documents share a key with another document in field {1}; the highest docID was kept", new Object[] { duplicates, field });
+        }
+        return out;
+    }
+    
+    private KeyLookupWriter() {}
+    
+}
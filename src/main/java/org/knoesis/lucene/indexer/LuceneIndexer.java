@@ -20,8 +20,12 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PrintStream;
 import java.nio.channels.FileChannel;
 import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Properties;
 import java.util.concurrent.TimeUnit;
 import org.apache.commons.cli.BasicParser;
@@ -32,8 +36,12 @@ import org.apache.commons.cli.OptionBuilder;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
 import org.knoesis.lucene.indexer.utils.PropUtils;
+import org.knoesis.util.concurrent.producerconsumer.Consumer;
 import org.knoesis.util.concurrent.producerconsumer.ProducerConsumer;
 
 /**
@@ -48,12 +56,24 @@ import org.knoesis.util.concurrent.producerconsumer.ProducerConsumer;
 public class LuceneIndexer {
     
     private static final String INDEX_PROPERTIES_FILENAME = "index.properties";
+    private static final String FIELD_COSTS_FILENAME = "field-costs.txt";
+    private static final String SORT_PARTITION_DIR_PREFIX = "sort-partition-";
     
     private final Properties properties;
     private final ProducerConsumer<Document> pc;
     private final IndexWriter writer;
     private final FieldDocFactory fields;
     private final boolean forceMerge;
+    private final boolean forceOverwrite;
+    private final DocumentSorter sorter;
+    private final List<IndexWriter> partitionWriters = new ArrayList<IndexWriter>();
+    private final List<Indexer> partitionIndexers = new ArrayList<Indexer>();
+    private final DocumentQueue transformed;
+    private final DocumentQueue duplicates;
+    private final IndexWriter duplicatesWriter;
+    private final NearDuplicateDetector detector;
+    private final List<Thread> downstreamThreads = new ArrayList<Thread>();
+    private final List<Throwable> downstreamErrors = Collections.synchronizedList(new ArrayList<Throwable>());
 
     public LuceneIndexer(Properties properties, boolean forceOverwrite) throws Exception {
         this.properties = properties;
@@ -62,10 +82,14 @@ public class LuceneIndexer {
         String corpusReaderClassName = properties.getProperty(Constant.PROP_CORPUS_READER_CLASS);
         String indexerClassName = properties.getProperty(Constant.PROP_INDEXER_CLASS);
         forceMerge = PropUtils.getBoolean(properties, Constant.PROP_FORCE_MERGE);
+        this.forceOverwrite = forceOverwrite;
         boolean verbose = PropUtils.getBoolean(properties, Constant.PROP_VERBOSE);
         
         fields = new FieldDocFactory(FieldParams.parseProperties(properties), PropUtils.getInt(properties, Constant.PROP_DOC_FIELD_CACHE_SIZE, Constant.DEFAULT_MAX_CACHE_SIZE));
-        writer = IndexWriterFactory.createIndexWriter(properties, fields, forceOverwrite);
+        if (PropUtils.getBoolean(properties, Constant.PROP_FIELD_COSTS)) {
+            fields.setCostTracker(new FieldCostTracker());
+        }
+        writer = createIndexWriter(new File(properties.getProperty(Constant.PROP_LUCENE_DIR)), forceOverwrite);
         if (verbose) {
             writer.setInfoStream(System.out);
         }
@@ -78,10 +102,77 @@ public class LuceneIndexer {
                 .setBufferSize(bufferSize)
                 .addProducer(corpusReader);
         
-        for (int i=0; i<numIndexerThreads; i++) {
-            Indexer indexer = indexerClass.newInstance();
-            indexer.init(writer, fields, properties);
-            pcBuilder.addConsumer(indexer);
+        List<Consumer<Document>> downstream = new ArrayList<Consumer<Document>>();
+        if (properties.getProperty(Constant.PROP_SORT_FIELD) != null) {
+            // documents are collected and sorted first, then each sorted 
+            // partition is indexed by a single Indexer to keep its order
+            sorter = new DocumentSorter(properties, fields);
+            downstream.add(guard(sorter));
+            int numPartitions = Math.max(1, PropUtils.getInt(properties, Constant.PROP_SORT_PARTITIONS, 1));
+            for (int i=0; i<numPartitions; i++) {
+                IndexWriter partitionWriter = writer;
+                if (numPartitions > 1) {
+                    partitionWriter = createIndexWriter(getPartitionDir(i), true);
+                    partitionWriters.add(partitionWriter);
+                }
+                Indexer indexer = indexerClass.newInstance();
+                indexer.init(partitionWriter, fields, properties);
+                partitionIndexers.add(indexer);
+            }
+        } else {
+            sorter = null;
+            for (int i=0; i<numIndexerThreads; i++) {
+                Indexer indexer = indexerClass.newInstance();
+                indexer.init(writer, fields, properties);
+                downstream.add(guard(indexer));
+            }
+        }
+        
+        if (TransformStage.isConfigured(properties)) {
+            // the transform workers are fed by the CorpusReader, and everything
+            // downstream runs on its own threads, fed by the transformed queue
+            int transformBufferSize = PropUtils.getInt(properties, Constant.PROP_TRANSFORM_BUFFER_SIZE, bufferSize);
+            transformed = new DocumentQueue(transformBufferSize);
+            if (NearDuplicateDetector.isConfigured(properties) && NearDuplicateDetector.Action.ROUTE.name().equalsIgnoreCase(
+                    properties.getProperty(Constant.PROP_DEDUP_ACTION, "").trim())) {
+                // near-duplicates are indexed into their own index by one more Indexer
+                duplicates = new DocumentQueue(transformBufferSize);
+                File duplicatesDir = new File(properties.getProperty(Constant.PROP_DEDUP_DIR, 
+                        new File(properties.getProperty(Constant.PROP_LUCENE_DIR), Constant.DEFAULT_DEDUP_DIR_NAME).getPath()));
+                duplicatesWriter = IndexWriterFactory.createIndexWriter(properties, fields, duplicatesDir, forceOverwrite);
+                Indexer indexer = indexerClass.newInstance();
+                indexer.init(duplicatesWriter, fields, properties);
+                final Consumer<Document> duplicatesIndexer = guard(indexer);
+                downstreamThreads.add(new Thread(new Runnable() {
+                    public void run() {
+                        duplicatesIndexer.consume(duplicates);
+                    }
+                }, "duplicates-indexer"));
+            } else {
+                duplicates = null;
+                duplicatesWriter = null;
+            }
+            TransformStage stage = new TransformStage(properties, fields, transformed, duplicates);
+            detector = stage.getDetector();
+            for (Consumer<Document> worker : stage.getWorkers()) {
+                pcBuilder.addConsumer(worker);
+            }
+            for (int i=0; i<downstream.size(); i++) {
+                final Consumer<Document> consumer = downstream.get(i);
+                downstreamThreads.add(new Thread(new Runnable() {
+                    public void run() {
+                        consumer.consume(transformed);
+                    }
+                }, "indexer-" + i));
+            }
+        } else {
+            transformed = null;
+            duplicates = null;
+            duplicatesWriter = null;
+            detector = null;
+            for (Consumer<Document> consumer : downstream) {
+                pcBuilder.addConsumer(consumer);
+            }
         }
         pc = pcBuilder.build();
     }
@@ -94,18 +185,235 @@ public class LuceneIndexer {
      */
     public void createIndex() throws InterruptedException, IOException {
         long start = System.currentTimeMillis();
+        // recorded as already indexed for a later --tail of the same corpus
+        boolean recordBuild = PropUtils.getBoolean(properties, Constant.PROP_TAIL_RECORD_BUILD);
+        List<File> corpusFiles = recordBuild ? DirectoryTailer.listCorpusFiles(properties) : null;
+        for (Thread thread : downstreamThreads) {
+            thread.start();
+        }
         pc.begin();
-        writer.prepareCommit();
-        writer.commit();
+        if (transformed != null) {
+            transformed.close();
+            if (duplicates != null) {
+                duplicates.close();
+            }
+            for (Thread thread : downstreamThreads) {
+                thread.join();
+            }
+        }
+        if (!downstreamErrors.isEmpty()) {
+            if (sorter != null) {
+                sorter.close();
+            }
+            throw new IOException("Failed to index documents", downstreamErrors.get(0));
+        }
+        if (sorter != null) {
+            indexSorted();
+        }
+        commit();
         System.out.format("Indexed %s documents in %d minutes\n", NumberFormat.getInstance().format(writer.numDocs()), 
                 TimeUnit.MILLISECONDS.toMinutes(System.currentTimeMillis() - start));
+        if (detector != null) {
+            System.out.format("Found %s near-duplicates in %s documents (%s)\n", NumberFormat.getInstance().format(detector.getDuplicateCount()), 
+                    NumberFormat.getInstance().format(detector.getCheckedCount()), detector.getAction().name().toLowerCase());
+        }
+        if (duplicatesWriter != null) {
+            duplicatesWriter.prepareCommit();
+            duplicatesWriter.commit();
+            duplicatesWriter.close();
+        }
         if (forceMerge) {
             System.out.println("Merging segments...");
-            writer.forceMerge(1, true);
-            writer.prepareCommit();
-            writer.commit();
+            setForceMerging(true);
+            try {
+                writer.forceMerge(1, true);
+            } finally {
+                setForceMerging(false);
+            }
+            commit();
         }
         writer.close();
+        if (recordBuild) {
+            DirectoryTailer.writeState(properties, corpusFiles, forceOverwrite);
+        }
+        String keyLookupField = properties.getProperty(Constant.PROP_KEY_LOOKUP_FIELD);
+        if (keyLookupField != null) {
+            writeKeyLookup(keyLookupField);
+        }
+        if (IndexWarmer.isConfigured(properties)) {
+            new IndexWarmer(properties, fields, new File(properties.getProperty(Constant.PROP_LUCENE_DIR))).warm();
+        }
+        if (fields.getCostTracker() != null) {
+            writeFieldCostReport();
+        }
+    }
+    
+    /**
+     * Creates the {@code IndexWriter} for the given index directory, which is a
+     * {@link SplitIndexWriter} if heavy fields are split into a side index.
+     */
+    private IndexWriter createIndexWriter(File dir, boolean forceOverwrite) throws Exception {
+        if (SplitIndexWriter.isConfigured(properties)) {
+            return IndexWriterFactory.createSplitIndexWriter(properties, fields, dir, SplitIndexWriter.getHeavyDir(properties, dir), forceOverwrite);
+        }
+        return IndexWriterFactory.createIndexWriter(properties, fields, dir, forceOverwrite);
+    }
+    
+    /**
+     * Commits the main index, after the side index if there is one.
+     */
+    private void commit() throws IOException {
+        if (writer instanceof SplitIndexWriter) {
+            ((SplitIndexWriter) writer).commitHeavy();
+        }
+        writer.prepareCommit();
+        writer.commit();
+    }
+    
+    private void writeFieldCostReport() throws IOException {
+        File report = new File(properties.getProperty(Constant.PROP_FIELD_COSTS_REPORT, 
+                new File(properties.getProperty(Constant.PROP_LUCENE_DIR), FIELD_COSTS_FILENAME).getPath()));
+        fields.getCostTracker().writeReport(System.out);
+        PrintStream out = new PrintStream(new FileOutputStream(report), false, "UTF-8");
+        try {
+            fields.getCostTracker().writeReport(out);
+        } finally {
+            out.close();
+        }
+        System.out.format("Wrote field cost report to %s\n", report);
+    }
+    
+    /**
+     * Writes the {@link KeyLookup} file for the given field, reading the final
+     * committed index (so docIDs are not changed by later merges).
+     */
+    private void writeKeyLookup(String field) throws IOException {
+        File luceneDir = new File(properties.getProperty(Constant.PROP_LUCENE_DIR));
+        Directory directory = FSDirectory.open(luceneDir);
+        try {
+            IndexReader reader = IndexReader.open(directory);
+            try {
+                File file = KeyLookupWriter.write(reader, field, fields.getFieldType(field), luceneDir);
+                System.out.format("Wrote key lookup for %s to %s\n", field, file);
+            } finally {
+                reader.close();
+            }
+        } finally {
+            directory.close();
+        }
+    }
+    
+    /**
+     * Wraps a consumer of the corpus reader or transform stage so that if it 
+     * fails, the error is recorded for {@link #createIndex()} to rethrow, and 
+     * the remaining documents are drained and discarded rather than left to 
+     * fill the queue and block the threads feeding it.
+     */
+    private Consumer<Document> guard(final Consumer<Document> consumer) {
+        return new Consumer<Document>() {
+            public void consume(Iterable<Document> documents) {
+                try {
+                    consumer.consume(documents);
+                } catch (Throwable t) {
+                    downstreamErrors.add(t);
+                    for (Document doc : documents) {
+                        fields.recycle(doc);
+                    }
+                }
+            }
+        };
+    }
+    
+    /**
+     * Feeds the sorted partitions to their {@link Indexer}s. With a single 
+     * partition, documents are added to the main {@code IndexWriter} in order 
+     * by the calling thread. Otherwise each partition is written to its own 
+     * index in parallel, and the partition indexes are then added to the main 
+     * index in partition order.
+     */
+    private void indexSorted() throws InterruptedException, IOException {
+        try {
+            List<Iterable<Document>> partitions = sorter.finish(partitionIndexers.size());
+            if (partitions.size() == 1) {
+                partitionIndexers.get(0).consume(partitions.get(0));
+                return;
+            }
+            final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+            List<Thread> threads = new ArrayList<Thread>();
+            for (int i=0; i<partitions.size(); i++) {
+                final Indexer indexer = partitionIndexers.get(i);
+                final Iterable<Document> partition = partitions.get(i);
+                Thread thread = new Thread(new Runnable() {
+                    public void run() {
+                        try {
+                            indexer.consume(partition);
+                        } catch (Throwable t) {
+                            errors.add(t);
+                        }
+                    }
+                }, SORT_PARTITION_DIR_PREFIX + i);
+                thread.start();
+                threads.add(thread);
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            for (IndexWriter partitionWriter : partitionWriters) {
+                partitionWriter.close();
+            }
+            if (!errors.isEmpty()) {
+                throw new IOException("Failed to index sorted partition", errors.get(0));
+            }
+            System.out.format("Adding %d sorted partitions to index\n", partitions.size());
+            Directory[] dirs = new Directory[partitions.size()];
+            for (int i=0; i<dirs.length; i++) {
+                dirs[i] = FSDirectory.open(getPartitionDir(i));
+            }
+            writer.addIndexes(dirs);
+            if (writer instanceof SplitIndexWriter) {
+                Directory[] heavyDirs = new Directory[dirs.length];
+                for (int i=0; i<heavyDirs.length; i++) {
+                    heavyDirs[i] = FSDirectory.open(SplitIndexWriter.getHeavyDir(properties, getPartitionDir(i)));
+                }
+                ((SplitIndexWriter) writer).addHeavyIndexes(heavyDirs);
+                for (Directory heavyDir : heavyDirs) {
+                    heavyDir.close();
+                }
+            }
+            for (int i=0; i<dirs.length; i++) {
+                dirs[i].close();
+                deleteRecursively(getPartitionDir(i));
+            }
+        } finally {
+            sorter.close();
+        }
+    }
+    
+    private void setForceMerging(boolean forceMerging) {
+        setForceMerging(writer, forceMerging);
+        if (writer instanceof SplitIndexWriter && ((SplitIndexWriter) writer).getHeavyWriter() != null) {
+            setForceMerging(((SplitIndexWriter) writer).getHeavyWriter(), forceMerging);
+        }
+    }
+    
+    private static void setForceMerging(IndexWriter writer, boolean forceMerging) {
+        if (writer.getDirectory() instanceof RateLimitedDirectory) {
+            ((RateLimitedDirectory) writer.getDirectory()).getThrottle().setForceMerging(forceMerging);
+        }
+    }
+    
+    private File getPartitionDir(int partition) {
+        return new File(properties.getProperty(Constant.PROP_LUCENE_DIR), SORT_PARTITION_DIR_PREFIX + partition);
+    }
+    
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
     }
     
     /**
@@ -129,6 +437,14 @@ public class LuceneIndexer {
                 .withLongOpt("force-overwrite")
                 .withDescription("Overwrite (rather than append to) existing index if present")
                 .create());
+        options.addOption(OptionBuilder
+                .withLongOpt("daemon")
+                .withDescription("Run as a long-running daemon which accepts documents over a local socket")
+                .create());
+        options.addOption(OptionBuilder
+                .withLongOpt("tail")
+                .withDescription("Run as a long-running daemon which indexes new files in the corpus directory as they arrive")
+                .create());
         CommandLine commandLine = null;
         try {
             commandLine = parser.parse(options, args);
@@ -150,6 +466,32 @@ public class LuceneIndexer {
             in.close();
         }
         
+        if (commandLine.hasOption("daemon") || commandLine.hasOption("tail")) {
+            final IndexingDaemon daemon = new IndexingDaemon(properties, commandLine.hasOption("force-overwrite"));
+            final DirectoryTailer tailer = commandLine.hasOption("tail") ? new DirectoryTailer(properties, daemon, commandLine.hasOption("force-overwrite")) : null;
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        if (tailer != null) {
+                            tailer.stop();
+                        }
+                        daemon.shutdown();
+                    } catch (Exception ex) {
+                        ex.printStackTrace();
+                    }
+                }
+            });
+            daemon.start();
+            if (commandLine.hasOption("daemon")) {
+                daemon.listen();
+            }
+            if (tailer != null) {
+                tailer.start();
+            }
+            return;
+        }
+        
         LuceneIndexer indexer = new LuceneIndexer(properties, commandLine.hasOption("force-overwrite"));
         indexer.createIndex();
         indexer.copyPropertiesFileToIndexDir(commandLine.getOptionValue('p'));
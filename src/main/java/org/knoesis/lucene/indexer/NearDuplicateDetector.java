@@ -0,0 +1,267 @@
+/**
+ * Copyright (C) 2014 Kno.e.sis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knoesis.lucene.indexer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.lucene.document.Document;
+import org.knoesis.lucene.indexer.utils.PropUtils;
+
+/**
+ * Detects near-duplicate documents at ingest with MinHash signatures over the 
+ * text of the fields in {@code luceneindexer.dedup.fields}. Each document's 
+ * text is lowercased and split into word shingles, and its signature of 
+ * {@code bands * rows} MinHash values is cut into bands. A document is a 
+ * near-duplicate if any of its band hashes was seen for an earlier document, 
+ * which happens with high probability once the Jaccard similarity of their 
+ * shingles passes about {@code (1 / bands) ^ (1 / rows)} (0.71 by default).
+ * <br/><br/>
+ * Only the band hashes of kept documents are remembered, in a compact 
+ * lock-striped set of {@code long}s, so memory is about 
+ * {@code 8 * bands / LOAD_FACTOR} bytes per document. Instances are shared by
+ * all transform threads and are thread-safe; two near-duplicates checked at 
+ * the same moment may both be kept, but a document is never treated as a 
+ * duplicate of itself.
+ */
+class NearDuplicateDetector {
+    
+    /**
+     * What to do with a near-duplicate document.
+     */
+    enum Action { 
+        /** Leave it out of the index. */
+        DROP, 
+        /** Index it with the tag field added. */
+        TAG, 
+        /** Index it into the separate duplicates index. */
+        ROUTE 
+    }
+    
+    static boolean isConfigured(Properties properties) {
+        String fields = properties.getProperty(Constant.PROP_DEDUP_FIELDS);
+        return fields != null && fields.trim().length() > 0;
+    }
+    
+    private static final int NUM_STRIPES = 64;
+    private static final double LOAD_FACTOR = 0.6;
+    
+    private final List<String> fieldNames = new ArrayList<String>();
+    private final Action action;
+    private final String tagField;
+    private final int shingleSize;
+    private final int bands;
+    private final int rows;
+    private final long[] seeds;
+    private final LongSet[] stripes = new LongSet[NUM_STRIPES];
+    private final AtomicLong checked = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+
+    NearDuplicateDetector(Properties properties) {
+        for (String field : properties.getProperty(Constant.PROP_DEDUP_FIELDS).split(",")) {
+            if (field.trim().length() > 0) {
+                fieldNames.add(field.trim());
+            }
+        }
+        action = Action.valueOf(properties.getProperty(Constant.PROP_DEDUP_ACTION, Action.DROP.name()).trim().toUpperCase());
+        tagField = properties.getProperty(Constant.PROP_DEDUP_TAG_FIELD, Constant.DEFAULT_DEDUP_TAG_FIELD);
+        shingleSize = Math.max(1, PropUtils.getInt(properties, Constant.PROP_DEDUP_SHINGLE_SIZE, Constant.DEFAULT_DEDUP_SHINGLE_SIZE));
+        bands = Math.max(1, PropUtils.getInt(properties, Constant.PROP_DEDUP_BANDS, Constant.DEFAULT_DEDUP_BANDS));
+        rows = Math.max(1, PropUtils.getInt(properties, Constant.PROP_DEDUP_ROWS, Constant.DEFAULT_DEDUP_ROWS));
+        // fixed seeds, so signatures are comparable across runs
+        Random random = new Random(bands * 31L + rows);
+        seeds = new long[bands * rows];
+        for (int i=0; i<seeds.length; i++) {
+            seeds[i] = random.nextLong();
+        }
+        for (int i=0; i<NUM_STRIPES; i++) {
+            stripes[i] = new LongSet();
+        }
+    }
+    
+    Action getAction() {
+        return action;
+    }
+    
+    String getTagField() {
+        return tagField;
+    }
+    
+    long getCheckedCount() {
+        return checked.get();
+    }
+    
+    long getDuplicateCount() {
+        return duplicates.get();
+    }
+    
+    /**
+     * Checks whether the document is a near-duplicate of one checked before, 
+     * and if not, remembers it. Documents without any text in the configured 
+     * fields are never duplicates.
+     */
+    boolean isDuplicate(Document document) {
+        checked.incrementAndGet();
+        long[] signature = signature(document);
+        if (signature == null) {
+            return false;
+        }
+        long[] bandHashes = new long[bands];
+        for (int band=0; band<bands; band++) {
+            long hash = mix(band + 1);
+            for (int row=0; row<rows; row++) {
+                hash = mix(hash ^ signature[band * rows + row]);
+            }
+            bandHashes[band] = hash;
+            if (stripe(hash).contains(hash)) {
+                duplicates.incrementAndGet();
+                return true;
+            }
+        }
+        for (long hash : bandHashes) {
+            stripe(hash).add(hash);
+        }
+        return false;
+    }
+    
+    /**
+     * Returns the MinHash signature of the document's shingles, or 
+     * {@code null} if it has no text in the configured fields.
+     */
+    long[] signature(Document document) {
+        List<String> tokens = new ArrayList<String>();
+        for (String field : fieldNames) {
+            for (String value : document.getValues(field)) {
+                tokenize(value, tokens);
+            }
+        }
+        if (tokens.isEmpty()) {
+            return null;
+        }
+        long[] signature = new long[seeds.length];
+        for (int i=0; i<signature.length; i++) {
+            signature[i] = Long.MAX_VALUE;
+        }
+        int numShingles = Math.max(1, tokens.size() - shingleSize + 1);
+        for (int start=0; start<numShingles; start++) {
+            long shingle = 0xcbf29ce484222325L;
+            for (int i=start; i<Math.min(start + shingleSize, tokens.size()); i++) {
+                shingle = mix(shingle ^ hash(tokens.get(i)));
+            }
+            for (int i=0; i<seeds.length; i++) {
+                long value = mix(shingle ^ seeds[i]);
+                if (value < signature[i]) {
+                    signature[i] = value;
+                }
+            }
+        }
+        return signature;
+    }
+    
+    private LongSet stripe(long hash) {
+        return stripes[(int) (hash >>> 58) & (NUM_STRIPES - 1)];
+    }
+    
+    private static void tokenize(String text, List<String> tokens) {
+        int start = -1;
+        for (int i=0; i<=text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                tokens.add(text.substring(start, i).toLowerCase());
+                start = -1;
+            }
+        }
+    }
+    
+    /**
+     * 64-bit FNV-1a hash of a token.
+     */
+    private static long hash(String token) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i=0; i<token.length(); i++) {
+            hash ^= token.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+    
+    /**
+     * The MurmurHash3 64-bit finalizer.
+     */
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+    
+    /**
+     * A synchronized open-addressing set of {@code long}s, where 0 marks an 
+     * empty slot (and is stored as 1).
+     */
+    private static final class LongSet {
+        
+        private long[] table = new long[1024];
+        private int size = 0;
+        
+        synchronized boolean contains(long value) {
+            value = value == 0 ? 1 : value;
+            int mask = table.length - 1;
+            for (int i=(int) value & mask; table[i] != 0; i=(i + 1) & mask) {
+                if (table[i] == value) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        
+        synchronized void add(long value) {
+            if (size + 1 > table.length * LOAD_FACTOR) {
+                long[] old = table;
+                table = new long[old.length * 2];
+                size = 0;
+                for (long v : old) {
+                    if (v != 0) {
+                        insert(v);
+                    }
+                }
+            }
+            insert(value == 0 ? 1 : value);
+        }
+        
+        private void insert(long value) {
+            int mask = table.length - 1;
+            int i = (int) value & mask;
+            while (table[i] != 0) {
+                if (table[i] == value) {
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            table[i] = value;
+            size++;
+        }
+        
+    }
+    
+}
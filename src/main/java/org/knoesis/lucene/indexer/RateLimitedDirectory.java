@@ -0,0 +1,196 @@
+/**
+ * Copyright (C) 2014 Kno.e.sis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knoesis.lucene.indexer;
+
+import java.io.IOException;
+import java.util.Collection;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.Lock;
+import org.apache.lucene.store.LockFactory;
+
+/**
+ * A {@code Directory} wrapper whose outputs are throttled by an 
+ * {@link IndexThrottle}. The limit is chosen at write time by the writing 
+ * thread, so flushes, merges, and forced merges are each held to their own 
+ * rate.
+ */
+class RateLimitedDirectory extends Directory {
+    
+    private static final int MIN_PAUSE_CHECK_BYTES = 32 * 1024;
+    
+    private final Directory delegate;
+    private final IndexThrottle throttle;
+
+    RateLimitedDirectory(Directory delegate, IndexThrottle throttle) {
+        this.delegate = delegate;
+        this.throttle = throttle;
+    }
+
+    IndexThrottle getThrottle() {
+        return throttle;
+    }
+
+    @Override
+    public String[] listAll() throws IOException {
+        return delegate.listAll();
+    }
+
+    @Override
+    public boolean fileExists(String name) throws IOException {
+        return delegate.fileExists(name);
+    }
+
+    @Override
+    public long fileModified(String name) throws IOException {
+        return delegate.fileModified(name);
+    }
+
+    @Override
+    public void touchFile(String name) throws IOException {
+        delegate.touchFile(name);
+    }
+
+    @Override
+    public void deleteFile(String name) throws IOException {
+        delegate.deleteFile(name);
+    }
+
+    @Override
+    public long fileLength(String name) throws IOException {
+        return delegate.fileLength(name);
+    }
+
+    @Override
+    public IndexOutput createOutput(String name) throws IOException {
+        return new RateLimitedIndexOutput(delegate.createOutput(name));
+    }
+
+    @Override
+    public void sync(Collection<String> names) throws IOException {
+        delegate.sync(names);
+    }
+
+    @Override
+    public IndexInput openInput(String name) throws IOException {
+        return delegate.openInput(name);
+    }
+
+    @Override
+    public IndexInput openInput(String name, int bufferSize) throws IOException {
+        return delegate.openInput(name, bufferSize);
+    }
+
+    @Override
+    public Lock makeLock(String name) {
+        return delegate.makeLock(name);
+    }
+
+    @Override
+    public void clearLock(String name) throws IOException {
+        delegate.clearLock(name);
+    }
+
+    @Override
+    public void setLockFactory(LockFactory lockFactory) throws IOException {
+        delegate.setLockFactory(lockFactory);
+    }
+
+    @Override
+    public LockFactory getLockFactory() {
+        return delegate.getLockFactory();
+    }
+
+    @Override
+    public String getLockID() {
+        return delegate.getLockID();
+    }
+
+    @Override
+    public void close() throws IOException {
+        throttle.unregister();
+        delegate.close();
+    }
+
+    @Override
+    public String toString() {
+        return "RateLimitedDirectory(" + delegate + ")";
+    }
+    
+    private final class RateLimitedIndexOutput extends IndexOutput {
+        
+        private final IndexOutput delegate;
+        private long pending = 0;
+
+        RateLimitedIndexOutput(IndexOutput delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void writeByte(byte b) throws IOException {
+            delegate.writeByte(b);
+            written(1);
+        }
+
+        @Override
+        public void writeBytes(byte[] b, int offset, int length) throws IOException {
+            delegate.writeBytes(b, offset, length);
+            written(length);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            delegate.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+
+        @Override
+        public long getFilePointer() {
+            return delegate.getFilePointer();
+        }
+
+        @Override
+        public void seek(long pos) throws IOException {
+            delegate.seek(pos);
+        }
+
+        @Override
+        public long length() throws IOException {
+            return delegate.length();
+        }
+
+        @Override
+        public void setLength(long length) throws IOException {
+            delegate.setLength(length);
+        }
+        
+        private void written(int bytes) {
+            pending += bytes;
+            if (pending >= MIN_PAUSE_CHECK_BYTES) {
+                throttle.current().pause(pending);
+                pending = 0;
+            }
+        }
+        
+    }
+    
+}
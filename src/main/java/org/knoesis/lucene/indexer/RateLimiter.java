@@ -0,0 +1,69 @@
+/**
+ * Copyright (C) 2014 Kno.e.sis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knoesis.lucene.indexer;
+
+/**
+ * Limits the rate at which bytes are written, shared by any number of 
+ * threads. A rate of zero (or less) means unlimited. The rate can be changed 
+ * at any time.
+ */
+class RateLimiter {
+    
+    private volatile double mbPerSec;
+    private long nextFreeNanos = System.nanoTime();
+
+    RateLimiter(double mbPerSec) {
+        this.mbPerSec = mbPerSec;
+    }
+
+    double getMBPerSec() {
+        return mbPerSec;
+    }
+
+    void setMBPerSec(double mbPerSec) {
+        this.mbPerSec = mbPerSec;
+    }
+    
+    /**
+     * Accounts for {@code bytes} having been written, sleeping as long as 
+     * necessary to keep the overall rate at or below the limit.
+     * @param bytes the number of bytes written since the last call
+     */
+    void pause(long bytes) {
+        double rate = mbPerSec;
+        if (rate <= 0) {
+            return;
+        }
+        long sleepNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (nextFreeNanos < now) {
+                nextFreeNanos = now;
+            }
+            nextFreeNanos += (long) (bytes * 1e9 / (rate * 1024 * 1024));
+            sleepNanos = nextFreeNanos - now;
+        }
+        if (sleepNanos > 0) {
+            try {
+                Thread.sleep(sleepNanos / 1000000, (int) (sleepNanos % 1000000));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+    
+}
@@ -0,0 +1,176 @@
+/**
+ * Copyright (C) 2014 Kno.e.sis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knoesis.lucene.indexer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A memory-mapped, per-document sort cache for one field, written into the 
+ * index directory by the warm-up step when the field is listed in 
+ * {@code luceneindexer.warmup.sortfields}. It holds the same values Lucene's 
+ * {@code FieldCache} would compute for sorting, so searchers can sort on the 
+ * field (see {@link SortCacheComparatorSource}) without building the 
+ * {@code FieldCache} at startup. Values are indexed by top-level docID and 
+ * are only valid for the index version the cache was written for. Instances 
+ * are thread-safe.
+ * <br/><br/>
+ * The file ({@code <field>.sortcache}) starts with a header ({@code int} 
+ * magic, {@code int} version, {@code byte} {@link FieldType} ordinal, 
+ * {@code int} {@code maxDoc}, {@code int} number of terms), followed by one 
+ * value per document: an {@code int}, {@code long}, {@code float} or 
+ * {@code double} for numeric fields, or the {@code int} ordinal of the 
+ * document's term for text fields. Text fields then have {@code terms + 1} 
+ * {@code int} offsets into a final section of UTF-8 term bytes (the start of 
+ * each term, then the end of the last), where ordinal 0 means the document 
+ * has no term.
+ */
+public class SortCache implements Closeable {
+    
+    static final String FILE_SUFFIX = ".sortcache";
+    static final int MAGIC = 0x4b534331;
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 4 + 4 + 1 + 4 + 4;
+    
+    /**
+     * Opens the sort cache for {@code field} in the given index directory.
+     * @param indexDir the Lucene index directory
+     * @param field the sort field
+     * @return the opened cache
+     * @throws IOException if the file is missing or malformed
+     */
+    public static SortCache open(File indexDir, String field) throws IOException {
+        return new SortCache(new File(indexDir, field + FILE_SUFFIX));
+    }
+    
+    static int valueBytes(FieldType type) {
+        switch (type) {
+            case LONG:
+            case DOUBLE:
+                return 8;
+            default:
+                return 4;
+        }
+    }
+    
+    private final RandomAccessFile file;
+    private final ByteBuffer buffer;
+    private final FieldType type;
+    private final int maxDoc;
+    private final int numTerms;
+    private final int offsetsOffset;
+    private final int dataOffset;
+
+    SortCache(File path) throws IOException {
+        file = new RandomAccessFile(path, "r");
+        try {
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("Not a version " + VERSION + " sort cache file: " + path);
+            }
+            type = FieldType.values()[buffer.get(8)];
+            maxDoc = buffer.getInt(9);
+            numTerms = buffer.getInt(13);
+            offsetsOffset = HEADER_BYTES + maxDoc * valueBytes(type);
+            dataOffset = offsetsOffset + (numTerms + 1) * 4;
+        } catch (IOException ex) {
+            file.close();
+            throw ex;
+        }
+    }
+    
+    public FieldType getType() {
+        return type;
+    }
+    
+    public int maxDoc() {
+        return maxDoc;
+    }
+    
+    /**
+     * Returns the value of an {@code INT} or {@code LONG} field for the given 
+     * document (0 if it has none).
+     */
+    public long getLong(int docId) {
+        int offset = HEADER_BYTES + docId * valueBytes(type);
+        switch (type) {
+            case INT:
+                return buffer.getInt(offset);
+            case LONG:
+                return buffer.getLong(offset);
+            default:
+                throw new IllegalStateException("Sort cache holds " + type + " values");
+        }
+    }
+    
+    /**
+     * Returns the value of a numeric field for the given document (0 if it has 
+     * none).
+     */
+    public double getDouble(int docId) {
+        int offset = HEADER_BYTES + docId * valueBytes(type);
+        switch (type) {
+            case FLOAT:
+                return buffer.getFloat(offset);
+            case DOUBLE:
+                return buffer.getDouble(offset);
+            default:
+                return getLong(docId);
+        }
+    }
+    
+    /**
+     * Returns the ordinal of the given document's term in a {@code TEXT} 
+     * field, where ordinals follow term order and 0 means no term.
+     */
+    public int getOrd(int docId) {
+        if (type != FieldType.TEXT) {
+            throw new IllegalStateException("Sort cache holds " + type + " values");
+        }
+        return buffer.getInt(HEADER_BYTES + docId * 4);
+    }
+    
+    /**
+     * Returns the term with the given ordinal, or {@code null} for ordinal 0.
+     */
+    public String getTerm(int ord) {
+        if (ord == 0) {
+            return null;
+        }
+        int start = buffer.getInt(offsetsOffset + (ord - 1) * 4);
+        int end = buffer.getInt(offsetsOffset + ord * 4);
+        byte[] bytes = new byte[end - start];
+        ByteBuffer view = buffer.duplicate();
+        view.position(dataOffset + start);
+        view.get(bytes);
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    public void close() throws IOException {
+        file.close();
+    }
+    
+}
@@ -0,0 +1,232 @@
+/**
+ * Copyright (C) 2014 Kno.e.sis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knoesis.lucene.indexer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.FieldComparator;
+import org.apache.lucene.search.FieldComparatorSource;
+import org.apache.lucene.search.SortField;
+
+/**
+ * Sorts search results using the {@link SortCache} files of an index instead 
+ * of the {@code FieldCache}, e.g. 
+ * {@code new Sort(new SortField("DT", new SortCacheComparatorSource(indexDir)))}.
+ * The searcher must be searching the exact index version the caches were 
+ * written for, since values are looked up by docID. Caches are opened on first
+ * use and kept open until {@link #close()}.
+ */
+public class SortCacheComparatorSource extends FieldComparatorSource {
+    
+    private final File indexDir;
+    private final transient Map<String, SortCache> caches = new ConcurrentHashMap<String, SortCache>();
+
+    public SortCacheComparatorSource(File indexDir) {
+        this.indexDir = indexDir;
+    }
+    
+    /**
+     * Convenience method returning a {@code SortField} on {@code field} backed
+     * by this source.
+     */
+    public SortField newSortField(String field, boolean reverse) {
+        return new SortField(field, this, reverse);
+    }
+
+    @Override
+    public FieldComparator<?> newComparator(String fieldname, int numHits, int sortPos, boolean reversed) throws IOException {
+        SortCache cache = getCache(fieldname);
+        switch (cache.getType()) {
+            case INT:
+            case LONG:
+                return new LongComparator(cache, numHits);
+            case FLOAT:
+            case DOUBLE:
+                return new DoubleComparator(cache, numHits);
+            default:
+                return new TermComparator(cache, numHits);
+        }
+    }
+    
+    public void close() throws IOException {
+        for (SortCache cache : caches.values()) {
+            cache.close();
+        }
+        caches.clear();
+    }
+    
+    private synchronized SortCache getCache(String field) throws IOException {
+        SortCache cache = caches.get(field);
+        if (cache == null) {
+            cache = SortCache.open(indexDir, field);
+            caches.put(field, cache);
+        }
+        return cache;
+    }
+    
+    private static final class LongComparator extends FieldComparator<Long> {
+        
+        private final SortCache cache;
+        private final long[] values;
+        private long bottom;
+        private int docBase;
+
+        LongComparator(SortCache cache, int numHits) {
+            this.cache = cache;
+            this.values = new long[numHits];
+        }
+
+        @Override
+        public int compare(int slot1, int slot2) {
+            return compareLongs(values[slot1], values[slot2]);
+        }
+
+        @Override
+        public void setBottom(int slot) {
+            bottom = values[slot];
+        }
+
+        @Override
+        public int compareBottom(int doc) {
+            return compareLongs(bottom, cache.getLong(docBase + doc));
+        }
+
+        @Override
+        public void copy(int slot, int doc) {
+            values[slot] = cache.getLong(docBase + doc);
+        }
+
+        @Override
+        public void setNextReader(IndexReader reader, int docBase) {
+            this.docBase = docBase;
+        }
+
+        @Override
+        public Long value(int slot) {
+            return values[slot];
+        }
+        
+        private static int compareLongs(long v1, long v2) {
+            return v1 < v2 ? -1 : (v1 == v2 ? 0 : 1);
+        }
+        
+    }
+    
+    private static final class DoubleComparator extends FieldComparator<Double> {
+        
+        private final SortCache cache;
+        private final double[] values;
+        private double bottom;
+        private int docBase;
+
+        DoubleComparator(SortCache cache, int numHits) {
+            this.cache = cache;
+            this.values = new double[numHits];
+        }
+
+        @Override
+        public int compare(int slot1, int slot2) {
+            return Double.compare(values[slot1], values[slot2]);
+        }
+
+        @Override
+        public void setBottom(int slot) {
+            bottom = values[slot];
+        }
+
+        @Override
+        public int compareBottom(int doc) {
+            return Double.compare(bottom, cache.getDouble(docBase + doc));
+        }
+
+        @Override
+        public void copy(int slot, int doc) {
+            values[slot] = cache.getDouble(docBase + doc);
+        }
+
+        @Override
+        public void setNextReader(IndexReader reader, int docBase) {
+            this.docBase = docBase;
+        }
+
+        @Override
+        public Double value(int slot) {
+            return values[slot];
+        }
+        
+    }
+    
+    /**
+     * Compares term ordinals, which follow term order across the whole index, 
+     * so no per-segment conversion is needed.
+     */
+    private static final class TermComparator extends FieldComparator<String> {
+        
+        private final SortCache cache;
+        private final int[] ords;
+        private int bottom;
+        private int docBase;
+
+        TermComparator(SortCache cache, int numHits) {
+            this.cache = cache;
+            this.ords = new int[numHits];
+        }
+
+        @Override
+        public int compare(int slot1, int slot2) {
+            return ords[slot1] - ords[slot2];
+        }
+
+        @Override
+        public void setBottom(int slot) {
+            bottom = ords[slot];
+        }
+
+        @Override
+        public int compareBottom(int doc) {
+            return bottom - cache.getOrd(docBase + doc);
+        }
+
+        @Override
+        public void copy(int slot, int doc) {
+            ords[slot] = cache.getOrd(docBase + doc);
+        }
+
+        @Override
+        public void setNextReader(IndexReader reader, int docBase) {
+            this.docBase = docBase;
+        }
+
+        @Override
+        public String value(int slot) {
+            return cache.getTerm(ords[slot]);
+        }
+
+        @Override
+        public int compareValues(String v1, String v2) {
+            if (v1 == null || v2 == null) {
+                return v1 == null ? (v2 == null ? 0 : -1) : 1;
+            }
+            return v1.compareTo(v2);
+        }
+        
+    }
+    
+}
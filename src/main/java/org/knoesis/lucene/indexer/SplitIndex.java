@@ -0,0 +1,67 @@
+/**
+ * Copyright (C) 2014 Kno.e.sis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knoesis.lucene.indexer;
+
+import java.io.File;
+import java.io.IOException;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.ParallelReader;
+import org.apache.lucene.store.FSDirectory;
+
+/**
+ * Opens an index whose heavy fields were split into a side index (see 
+ * {@code luceneindexer.split.fields}) as a single {@code ParallelReader}, 
+ * which serves the light fields from the main index and the heavy fields from
+ * the side index. The two indexes must have been built together, or the 
+ * light index rebuilt from the same documents in the same order.
+ */
+public class SplitIndex {
+    
+    /**
+     * Opens the main index in {@code indexDir} together with its side index 
+     * in {@code heavyDir}. Closing the returned reader closes both.
+     * @param indexDir the main (light) index directory
+     * @param heavyDir the side (heavy) index directory
+     * @return a reader over both indexes
+     * @throws IOException if either index cannot be opened, or they do not 
+     * have the same number of documents
+     */
+    public static IndexReader open(File indexDir, File heavyDir) throws IOException {
+        IndexReader light = IndexReader.open(FSDirectory.open(indexDir));
+        IndexReader heavy = null;
+        try {
+            heavy = IndexReader.open(FSDirectory.open(heavyDir));
+            if (light.maxDoc() != heavy.maxDoc()) {
+                throw new IOException(String.format("Index %s has %d documents but its side index %s has %d", 
+                        indexDir, light.maxDoc(), heavyDir, heavy.maxDoc()));
+            }
+            ParallelReader reader = new ParallelReader(true);
+            reader.add(light);
+            reader.add(heavy);
+            return reader;
+        } catch (IOException ex) {
+            light.close();
+            if (heavy != null) {
+                heavy.close();
+            }
+            throw ex;
+        }
+    }
+    
+    private SplitIndex() {}
+    
+}
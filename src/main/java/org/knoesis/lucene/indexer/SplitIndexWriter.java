@@ -0,0 +1,296 @@
+/**
+ * Copyright (C) 2014 Kno.e.sis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knoesis.lucene.indexer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.Set;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Fieldable;
+import org.apache.lucene.index.CorruptIndexException;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.store.Directory;
+
+/**
+ * An {@code IndexWriter} which splits the heavy fields listed in 
+ * {@code luceneindexer.split.fields} (e.g. the term vector fields) off into a 
+ * second, docID-aligned index, so the two can be read together through 
+ * {@link SplitIndex#open(java.io.File, java.io.File)}.
+ * <br/><br/>
+ * The heavy fields are removed from each added document and queued, in the 
+ * same order the light document is given its docID, for a single thread 
+ * which adds them to the side {@code IndexWriter}. Only the removal of the 
+ * heavy fields runs concurrently: since the docID cannot be assigned apart 
+ * from {@code addDocument()}, the light documents are added (and analyzed) 
+ * one at a time under a lock, and the heavy fields are analyzed on the single
+ * side writer thread. Indexing throughput is therefore about that of one 
+ * thread, whatever {@code luceneindexer.indexerthreads} is set to; the 
+ * heavier of the two halves sets the pace. Both writers only merge adjacent segments, which keeps 
+ * docIDs aligned through merges. Updates and deletes are not supported, and 
+ * any failure to add a document to either index leaves them misaligned, so it
+ * fails every later operation on this writer.
+ * <br/><br/>
+ * If there is no side writer (with {@code luceneindexer.split.lightonly}), 
+ * the heavy fields are dropped so only the light index is rebuilt. It stays 
+ * aligned with the existing side index only if the corpus produces the same 
+ * documents in the same order, e.g. with {@code luceneindexer.sort.field} set
+ * to a unique key.
+ */
+class SplitIndexWriter extends IndexWriter {
+    
+    static boolean isConfigured(Properties properties) {
+        return properties.getProperty(Constant.PROP_SPLIT_FIELDS) != null;
+    }
+    
+    static Set<String> getSplitFields(Properties properties) {
+        Set<String> fields = new HashSet<String>();
+        for (String field : properties.getProperty(Constant.PROP_SPLIT_FIELDS).split(",")) {
+            if (field.trim().length() > 0) {
+                fields.add(field.trim());
+            }
+        }
+        return fields;
+    }
+    
+    /**
+     * Returns the directory of the side index for the index in 
+     * {@code indexDir}: {@code luceneindexer.split.dir} for the main index, 
+     * otherwise a subdirectory of {@code indexDir}.
+     */
+    static File getHeavyDir(Properties properties, File indexDir) {
+        File luceneDir = new File(properties.getProperty(Constant.PROP_LUCENE_DIR));
+        String heavyDir = properties.getProperty(Constant.PROP_SPLIT_DIR);
+        if (heavyDir != null && indexDir.getAbsoluteFile().equals(luceneDir.getAbsoluteFile())) {
+            return new File(heavyDir);
+        }
+        return new File(indexDir, Constant.DEFAULT_SPLIT_DIR_NAME);
+    }
+    
+    private final Directory directory;
+    private final IndexWriter heavyWriter;
+    private final Set<String> heavyFields;
+    private final DocumentQueue heavyQueue;
+    private final Thread heavyThread;
+    private final Object addLock = new Object();
+    private volatile Throwable error = null;
+
+    SplitIndexWriter(Directory directory, IndexWriterConfig config, IndexWriter heavyWriter, Set<String> heavyFields, int bufferSize) throws IOException {
+        super(directory, config);
+        this.directory = directory;
+        this.heavyWriter = heavyWriter;
+        this.heavyFields = heavyFields;
+        if (heavyWriter == null) {
+            heavyQueue = null;
+            heavyThread = null;
+            return;
+        }
+        heavyQueue = new DocumentQueue(bufferSize);
+        heavyThread = new Thread(new Runnable() {
+            public void run() {
+                for (Document heavy : heavyQueue) {
+                    // after a failure, keep draining so adds do not block
+                    if (error == null) {
+                        try {
+                            SplitIndexWriter.this.heavyWriter.addDocument(heavy);
+                        } catch (Throwable t) {
+                            error = t;
+                        }
+                    }
+                }
+            }
+        }, "split-index-writer");
+        heavyThread.start();
+    }
+    
+    IndexWriter getHeavyWriter() {
+        return heavyWriter;
+    }
+
+    @Override
+    public void addDocument(Document doc, Analyzer analyzer) throws CorruptIndexException, IOException {
+        checkAligned();
+        Document heavy = new Document();
+        Iterator<Fieldable> fields = doc.getFields().iterator();
+        while (fields.hasNext()) {
+            Fieldable field = fields.next();
+            if (heavyFields.contains(field.name())) {
+                heavy.add(field);
+                fields.remove();
+            }
+        }
+        // serializes all adds, so the heavy fields are queued in docID order
+        synchronized (addLock) {
+            try {
+                super.addDocument(doc, analyzer);
+            } catch (IOException ex) {
+                error = ex;
+                throw ex;
+            } catch (RuntimeException ex) {
+                error = ex;
+                throw ex;
+            }
+            if (heavyQueue != null) {
+                try {
+                    heavyQueue.put(heavy);
+                } catch (InterruptedException ex) {
+                    error = ex;
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while queueing split fields", ex);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void addDocuments(Collection<Document> docs, Analyzer analyzer) throws CorruptIndexException, IOException {
+        synchronized (addLock) {
+            for (Document doc : docs) {
+                addDocument(doc, analyzer);
+            }
+        }
+    }
+
+    @Override
+    public void updateDocument(Term term, Document doc, Analyzer analyzer) throws CorruptIndexException, IOException {
+        throw new UnsupportedOperationException("Updates are not supported with a split index");
+    }
+
+    @Override
+    public void updateDocuments(Term delTerm, Collection<Document> docs, Analyzer analyzer) throws CorruptIndexException, IOException {
+        throw new UnsupportedOperationException("Updates are not supported with a split index");
+    }
+
+    @Override
+    public void deleteDocuments(Term term) throws CorruptIndexException, IOException {
+        throw new UnsupportedOperationException("Deletes are not supported with a split index");
+    }
+
+    @Override
+    public void deleteDocuments(Term... terms) throws CorruptIndexException, IOException {
+        throw new UnsupportedOperationException("Deletes are not supported with a split index");
+    }
+
+    @Override
+    public void deleteDocuments(Query query) throws CorruptIndexException, IOException {
+        throw new UnsupportedOperationException("Deletes are not supported with a split index");
+    }
+
+    @Override
+    public void deleteDocuments(Query... queries) throws CorruptIndexException, IOException {
+        throw new UnsupportedOperationException("Deletes are not supported with a split index");
+    }
+    
+    /**
+     * Waits for every queued document to be added to the side index, then 
+     * commits it. This should be called just before each commit of this 
+     * writer, so a committed light index never has documents missing from the 
+     * committed side index.
+     * @throws IOException 
+     */
+    void commitHeavy() throws IOException {
+        awaitHeavy();
+        if (heavyWriter != null) {
+            heavyWriter.prepareCommit();
+            heavyWriter.commit();
+        }
+    }
+    
+    /**
+     * Adds the given side indexes to the side index, e.g. after the matching 
+     * light indexes have been added to this writer with 
+     * {@link #addIndexes(org.apache.lucene.store.Directory[])}.
+     */
+    void addHeavyIndexes(Directory... dirs) throws CorruptIndexException, IOException {
+        awaitHeavy();
+        if (heavyWriter != null) {
+            heavyWriter.addIndexes(dirs);
+        }
+    }
+
+    @Override
+    public void forceMerge(int maxNumSegments, boolean doWait) throws CorruptIndexException, IOException {
+        super.forceMerge(maxNumSegments, doWait);
+        awaitHeavy();
+        if (heavyWriter != null) {
+            heavyWriter.forceMerge(maxNumSegments, doWait);
+        }
+    }
+
+    @Override
+    public void close(boolean waitForMerges) throws CorruptIndexException, IOException {
+        try {
+            super.close(waitForMerges);
+        } finally {
+            if (heavyWriter != null) {
+                heavyQueue.close();
+                try {
+                    heavyThread.join();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                heavyWriter.close(waitForMerges);
+            }
+        }
+        directory.close();
+        checkAligned();
+    }
+    
+    @Override
+    public void rollback() throws IOException {
+        try {
+            super.rollback();
+        } finally {
+            if (heavyWriter != null) {
+                heavyQueue.close();
+                try {
+                    heavyThread.join();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                heavyWriter.rollback();
+            }
+        }
+        directory.close();
+    }
+    
+    private void awaitHeavy() throws IOException {
+        if (heavyQueue != null) {
+            try {
+                heavyQueue.awaitProcessed();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the split index writer", ex);
+            }
+        }
+        checkAligned();
+    }
+    
+    private void checkAligned() throws IOException {
+        if (error != null) {
+            throw new IOException("Split indexes are no longer aligned", error);
+        }
+    }
+    
+}
@@ -0,0 +1,45 @@
+/**
+ * Copyright (C) 2014 Kno.e.sis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knoesis.lucene.indexer;
+
+import java.io.IOException;
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.MergePolicy;
+
+/**
+ * A {@code ConcurrentMergeScheduler} which marks its merge threads, so that 
+ * an {@link IndexThrottle} can apply the merge write-rate limit to them.
+ */
+class ThrottledMergeScheduler extends ConcurrentMergeScheduler {
+    
+    private final IndexThrottle throttle;
+
+    ThrottledMergeScheduler(IndexThrottle throttle) {
+        this.throttle = throttle;
+    }
+
+    @Override
+    protected void doMerge(MergePolicy.OneMerge merge) throws IOException {
+        throttle.beginMerge();
+        try {
+            super.doMerge(merge);
+        } finally {
+            throttle.endMerge();
+        }
+    }
+    
+}
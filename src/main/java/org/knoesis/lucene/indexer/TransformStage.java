@@ -0,0 +1,173 @@
+/**
+ * Copyright (C) 2014 Kno.e.sis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knoesis.lucene.indexer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import org.apache.lucene.document.Document;
+import org.knoesis.lucene.indexer.utils.PropUtils;
+import org.knoesis.util.concurrent.producerconsumer.Consumer;
+
+/**
+ * Runs the chain of {@link DocumentTransformer}s configured in 
+ * {@code luceneindexer.transformers} on its own pool of 
+ * {@code luceneindexer.transformerthreads} workers, passing the transformed 
+ * documents on through a bounded {@link DocumentQueue}. Each worker is a 
+ * {@link Consumer}, so it can be fed either by a {@code ProducerConsumer} or 
+ * by another {@code DocumentQueue}.
+ * <br/><br/>
+ * If {@code luceneindexer.dedup.fields} is set, the transformed documents are
+ * then checked by a shared {@link NearDuplicateDetector}, and near-duplicates
+ * are dropped, tagged, or routed to a separate {@code DocumentQueue}. 
+ * Compressed fields are compressed last, after the transformers and the 
+ * detector have read them, so the stage runs whenever any field is compressed.
+ */
+class TransformStage {
+    
+    private final List<Consumer<Document>> workers = new ArrayList<Consumer<Document>>();
+    private final NearDuplicateDetector detector;
+    
+    static boolean isConfigured(Properties properties) {
+        String transformers = properties.getProperty(Constant.PROP_TRANSFORMERS);
+        return (transformers != null && transformers.trim().length() > 0) || NearDuplicateDetector.isConfigured(properties) 
+                || hasCompressedFields(properties);
+    }
+    
+    /**
+     * Compressed fields are compressed by the workers, so the stage also runs
+     * (with no transformers) if any field is compressed.
+     */
+    private static boolean hasCompressedFields(Properties properties) {
+        if (PropUtils.getBoolean(properties, Constant.PROP_DEFAULT_COMPRESS)) {
+            return true;
+        }
+        for (String property : properties.stringPropertyNames()) {
+            if (property.startsWith(Constant.PROP_PREFIX_FIELD) && property.endsWith(Constant.PROP_SUFFIX_COMPRESS)
+                    && Boolean.parseBoolean(properties.getProperty(property).trim())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    TransformStage(Properties properties, FieldDocFactory fields, DocumentQueue output) throws Exception {
+        this(properties, fields, output, null);
+    }
+
+    /**
+     * @param duplicates the queue for near-duplicates when they are routed to
+     * a separate index, otherwise {@code null}
+     */
+    TransformStage(Properties properties, FieldDocFactory fields, DocumentQueue output, DocumentQueue duplicates) throws Exception {
+        int numThreads = Math.max(1, PropUtils.getInt(properties, Constant.PROP_TRANSFORMER_THREADS, Constant.DEFAULT_NUM_CONSUMERS));
+        List<Class<DocumentTransformer>> classes = new ArrayList<Class<DocumentTransformer>>();
+        for (String className : properties.getProperty(Constant.PROP_TRANSFORMERS, "").split(",")) {
+            if (className.trim().length() > 0) {
+                classes.add((Class<DocumentTransformer>) Class.forName(className.trim()));
+            }
+        }
+        if (NearDuplicateDetector.isConfigured(properties)) {
+            detector = new NearDuplicateDetector(properties);
+            if (detector.getAction() == NearDuplicateDetector.Action.ROUTE && duplicates == null) {
+                throw new IllegalArgumentException("Routing near-duplicates to a separate index is not supported here");
+            }
+        } else {
+            detector = null;
+        }
+        for (int i=0; i<numThreads; i++) {
+            List<DocumentTransformer> chain = new ArrayList<DocumentTransformer>();
+            for (Class<DocumentTransformer> transformerClass : classes) {
+                DocumentTransformer transformer = transformerClass.newInstance();
+                transformer.init(fields, properties);
+                chain.add(transformer);
+            }
+            workers.add(new Worker(chain, fields, output, detector, duplicates));
+        }
+    }
+    
+    List<Consumer<Document>> getWorkers() {
+        return Collections.unmodifiableList(workers);
+    }
+    
+    /**
+     * Returns the shared near-duplicate detector, or {@code null} if 
+     * near-duplicate detection is not configured.
+     */
+    NearDuplicateDetector getDetector() {
+        return detector;
+    }
+    
+    private static final class Worker implements Consumer<Document> {
+        
+        private final List<DocumentTransformer> chain;
+        private final FieldDocFactory fields;
+        private final DocumentQueue output;
+        private final NearDuplicateDetector detector;
+        private final DocumentQueue duplicates;
+
+        Worker(List<DocumentTransformer> chain, FieldDocFactory fields, DocumentQueue output, NearDuplicateDetector detector, DocumentQueue duplicates) {
+            this.chain = chain;
+            this.fields = fields;
+            this.output = output;
+            this.detector = detector;
+            this.duplicates = duplicates;
+        }
+
+        public void consume(Iterable<Document> documents) {
+            for (Document doc : documents) {
+                Document transformed = doc;
+                for (DocumentTransformer transformer : chain) {
+                    Document next = transformer.transform(transformed);
+                    if (next == null) {
+                        fields.recycle(transformed);
+                        transformed = null;
+                        break;
+                    }
+                    transformed = next;
+                }
+                if (transformed == null) {
+                    continue;
+                }
+                DocumentQueue target = output;
+                if (detector != null && detector.isDuplicate(transformed)) {
+                    switch (detector.getAction()) {
+                        case DROP:
+                            fields.recycle(transformed);
+                            continue;
+                        case TAG:
+                            transformed.add(fields.createField(detector.getTagField(), Boolean.TRUE.toString()));
+                            break;
+                        case ROUTE:
+                            target = duplicates;
+                            break;
+                    }
+                }
+                fields.compress(transformed);
+                try {
+                    target.put(transformed);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+        
+    }
+    
+}
@@ -32,6 +32,18 @@ public class PropUtils {
         }
     }
     
+    public static double getDouble(Properties properties, String key, double defaultValue) {
+        String value = properties.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException ex) {
+            return defaultValue;
+        }
+    }
+    
     public static boolean getBoolean(Properties properties, String key) {
         return Boolean.parseBoolean(properties.getProperty(key));
     }
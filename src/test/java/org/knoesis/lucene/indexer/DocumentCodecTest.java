@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2014 Kno.e.sis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knoesis.lucene.indexer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Arrays;
+import java.util.Properties;
+import junit.framework.TestCase;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Fieldable;
+
+/**
+ * Tests that compressed fields are readable until they are compressed, and 
+ * that {@link DocumentCodec} keeps them compressed.
+ */
+public class DocumentCodecTest extends TestCase {
+    
+    private static final String TEXT = "the protein kinase pathway regulates cell growth";
+    
+    private FieldDocFactory fields;
+
+    @Override
+    protected void setUp() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty(Constant.PROP_LUCENE_VERSION, "LUCENE_36");
+        properties.setProperty(Constant.PROP_DEFAULT_ANALYZER, "org.apache.lucene.analysis.WhitespaceAnalyzer");
+        properties.setProperty(Constant.PROP_PREFIX_FIELD + "AB" + Constant.PROP_SUFFIX_INDEX, "ANALYZED");
+        properties.setProperty(Constant.PROP_PREFIX_FIELD + "AB" + Constant.PROP_SUFFIX_COMPRESS, "true");
+        properties.setProperty(Constant.PROP_PREFIX_FIELD + "FT" + Constant.PROP_SUFFIX_INDEX, "NO");
+        properties.setProperty(Constant.PROP_PREFIX_FIELD + "FT" + Constant.PROP_SUFFIX_COMPRESS, "true");
+        fields = new FieldDocFactory(FieldParams.parseProperties(properties));
+    }
+    
+    public void testCompressedFieldsKeepTheirBytes() throws Exception {
+        Document doc = new Document();
+        doc.add(fields.createField("PMID", "42"));
+        doc.add(fields.createField("AB", TEXT));
+        doc.add(fields.createField("FT", TEXT));
+        fields.compress(doc);
+        byte[] abBytes = binaryValue(doc.getFieldable("AB"));
+        byte[] ftBytes = binaryValue(doc.getFieldable("FT"));
+        
+        byte[] encoded = encode(doc, doc);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded));
+        DocumentCodec.skip(in);
+        Document read = DocumentCodec.read(in, fields);
+        assertEquals(0, in.available());
+        
+        assertEquals("42", read.get("PMID"));
+        Fieldable ab = read.getFieldable("AB");
+        assertTrue(ab instanceof CompressedField);
+        assertTrue(Arrays.equals(abBytes, binaryValue(ab)));
+        assertEquals(TEXT, ab.stringValue());
+        Fieldable ft = read.getFieldable("FT");
+        assertTrue(ft instanceof CompressedField);
+        assertTrue(Arrays.equals(ftBytes, binaryValue(ft)));
+        assertNull("text of a field which is not indexed is not kept", ft.stringValue());
+        assertEquals(TEXT, CompressedFields.get(read, "FT"));
+    }
+    
+    public void testCompressedFieldsAreReadableUntilCompressed() throws Exception {
+        Document doc = new Document();
+        doc.add(fields.createField("AB", TEXT));
+        assertEquals(TEXT, doc.get("AB"));
+        assertEquals(1, doc.getValues("AB").length);
+        fields.compress(doc);
+        assertNull(doc.get("AB"));
+        assertEquals(TEXT, doc.getFieldable("AB").stringValue());
+        assertEquals(TEXT, CompressedFields.get(doc, "AB"));
+    }
+    
+    public void testCompressedTextIsOnlyWrittenIfIndexed() throws Exception {
+        Document indexed = new Document();
+        indexed.add(fields.createField("AB", TEXT));
+        Document stored = new Document();
+        stored.add(fields.createField("FT", TEXT));
+        assertTrue(encode(stored).length < encode(indexed).length - TEXT.length());
+    }
+    
+    private static byte[] encode(Document... docs) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (Document doc : docs) {
+            DocumentCodec.write(doc, out);
+        }
+        out.close();
+        return bytes.toByteArray();
+    }
+    
+    private static byte[] binaryValue(Fieldable field) {
+        return Arrays.copyOfRange(field.getBinaryValue(), field.getBinaryOffset(), field.getBinaryOffset() + field.getBinaryLength());
+    }
+}
@@ -0,0 +1,219 @@
+/**
+ * Copyright (C) 2014 Kno.e.sis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knoesis.lucene.indexer;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import junit.framework.TestCase;
+import org.apache.lucene.document.Document;
+
+/**
+ * Tests spilling, merging and range partitioning in {@link DocumentSorter}.
+ */
+public class DocumentSorterTest extends TestCase {
+    
+    private static final int NUM_DOCS = 20000;
+    private static final String PADDING = new String(new char[200]).replace('\0', 'x');
+    
+    private File tempDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        tempDir = File.createTempFile("sorter-test-", "");
+        tempDir.delete();
+        tempDir.mkdirs();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        File[] files = tempDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        tempDir.delete();
+    }
+    
+    public void testSpillAndMergeKeepsOrder() throws Exception {
+        Properties properties = createProperties("LONG", false);
+        FieldDocFactory fields = new FieldDocFactory(FieldParams.parseProperties(properties));
+        DocumentSorter sorter = new DocumentSorter(properties, fields);
+        addDocuments(sorter, fields, new Random(1));
+        assertTrue("expected spilled runs", countRuns() > 1);
+        
+        List<Object[]> sorted = drain(sorter.finish(1));
+        assertEquals(NUM_DOCS, sorted.size());
+        assertOrdered(sorted, false);
+        sorter.close();
+        assertEquals(0, countRuns());
+    }
+    
+    public void testReverseStringKeys() throws Exception {
+        Properties properties = createProperties("TEXT", true);
+        FieldDocFactory fields = new FieldDocFactory(FieldParams.parseProperties(properties));
+        DocumentSorter sorter = new DocumentSorter(properties, fields);
+        addDocuments(sorter, fields, new Random(2));
+        
+        List<Object[]> sorted = drain(sorter.finish(1));
+        assertEquals(NUM_DOCS, sorted.size());
+        assertOrdered(sorted, true);
+        sorter.close();
+    }
+    
+    public void testPartitionsAreContiguousRanges() throws Exception {
+        Properties properties = createProperties("LONG", false);
+        FieldDocFactory fields = new FieldDocFactory(FieldParams.parseProperties(properties));
+        DocumentSorter sorter = new DocumentSorter(properties, fields);
+        addDocuments(sorter, fields, new Random(3));
+        
+        List<Iterable<Document>> partitions = sorter.finish(4);
+        assertEquals(4, partitions.size());
+        List<Object[]> all = new ArrayList<Object[]>();
+        Object previousMax = null;
+        boolean previousHadNull = false;
+        for (Iterable<Document> partition : partitions) {
+            List<Object[]> docs = drain(partition);
+            assertFalse("no partition may be empty with sampled bounds", docs.isEmpty());
+            assertOrdered(docs, false);
+            Object min = docs.get(0)[0];
+            assertFalse("null keys must only be in the last partition", previousHadNull);
+            if (previousMax != null && min != null) {
+                assertTrue("equal keys must not span partitions", (Long) previousMax < (Long) min);
+            }
+            previousMax = docs.get(docs.size() - 1)[0];
+            previousHadNull = previousMax == null;
+            all.addAll(docs);
+        }
+        assertEquals(NUM_DOCS, all.size());
+        assertOrdered(all, false);
+        sorter.close();
+    }
+    
+    public void testSpilledDocumentsAreNotRecounted() throws Exception {
+        Properties properties = createProperties("LONG", false);
+        FieldDocFactory fields = new FieldDocFactory(FieldParams.parseProperties(properties));
+        fields.setCostTracker(new FieldCostTracker());
+        DocumentSorter sorter = new DocumentSorter(properties, fields);
+        addDocuments(sorter, fields, new Random(4));
+        assertTrue("expected spilled runs", countRuns() > 1);
+
+        assertEquals(NUM_DOCS, drain(sorter.finish(2)).size());
+        assertEquals(NUM_DOCS, fields.getCostTracker().get("SEQ").values.get());
+        assertEquals(NUM_DOCS * (long) PADDING.length(), fields.getCostTracker().get("BODY").storedBytes.get());
+        sorter.close();
+    }
+
+    public void testInMemoryOnly() throws Exception {
+        Properties properties = createProperties("LONG", false);
+        FieldDocFactory fields = new FieldDocFactory(FieldParams.parseProperties(properties));
+        DocumentSorter sorter = new DocumentSorter(properties, fields);
+        for (int i=0; i<10; i++) {
+            Document doc = new Document();
+            doc.add(fields.createField("ID", String.valueOf(10 - i)));
+            doc.add(fields.createField("SEQ", String.valueOf(i)));
+            sorter.add(doc);
+        }
+        assertEquals(0, countRuns());
+        List<Object[]> sorted = drain(sorter.finish(3));
+        assertEquals(10, sorted.size());
+        for (int i=0; i<10; i++) {
+            assertEquals(Long.valueOf(i + 1), sorted.get(i)[0]);
+        }
+    }
+    
+    private Properties createProperties(String type, boolean reverse) {
+        Properties properties = new Properties();
+        properties.setProperty(Constant.PROP_LUCENE_VERSION, "LUCENE_36");
+        properties.setProperty(Constant.PROP_DEFAULT_ANALYZER, "org.apache.lucene.analysis.WhitespaceAnalyzer");
+        properties.setProperty(Constant.PROP_PREFIX_FIELD + "ID" + Constant.PROP_SUFFIX_FIELDTYPE, type);
+        properties.setProperty(Constant.PROP_SORT_FIELD, "ID");
+        properties.setProperty(Constant.PROP_SORT_REVERSE, String.valueOf(reverse));
+        properties.setProperty(Constant.PROP_SORT_RAM_BUFFER_SIZE_MB, "1");
+        properties.setProperty(Constant.PROP_SORT_TEMP_DIR, tempDir.getPath());
+        return properties;
+    }
+    
+    /**
+     * Adds documents with keys from a small range (so there are many ties), 
+     * some without a key, each numbered in arrival order.
+     */
+    private static void addDocuments(DocumentSorter sorter, FieldDocFactory fields, Random random) throws Exception {
+        for (int i=0; i<NUM_DOCS; i++) {
+            Document doc = new Document();
+            if (random.nextInt(100) >= 5) {
+                doc.add(fields.createField("ID", String.valueOf(random.nextInt(1000))));
+            }
+            doc.add(fields.createField("SEQ", String.valueOf(i)));
+            doc.add(fields.createField("BODY", PADDING));
+            sorter.add(doc);
+        }
+    }
+    
+    /**
+     * Returns the numeric key, arrival number, and key text of each document.
+     */
+    private static List<Object[]> drain(List<Iterable<Document>> partitions) {
+        List<Object[]> docs = new ArrayList<Object[]>();
+        for (Iterable<Document> partition : partitions) {
+            docs.addAll(drain(partition));
+        }
+        return docs;
+    }
+    
+    private static List<Object[]> drain(Iterable<Document> partition) {
+        List<Object[]> docs = new ArrayList<Object[]>();
+        for (Document doc : partition) {
+            String id = doc.get("ID");
+            Object key = id == null ? null : Long.valueOf(id);
+            docs.add(new Object[] { key, Integer.valueOf(doc.get("SEQ")), id });
+        }
+        return docs;
+    }
+    
+    /**
+     * Checks that keys are ordered (compared as text if reversed, otherwise as
+     * numbers), nulls last, and that equal keys keep arrival order.
+     */
+    private static void assertOrdered(List<Object[]> docs, boolean reverse) {
+        for (int i=1; i<docs.size(); i++) {
+            Object[] prev = docs.get(i - 1);
+            Object[] next = docs.get(i);
+            if (prev[0] == null) {
+                assertNull("null keys must be last", next[0]);
+                assertTrue("null keys must keep arrival order", (Integer) prev[1] < (Integer) next[1]);
+                continue;
+            }
+            if (next[0] == null) {
+                continue;
+            }
+            int cmp = reverse ? ((String) next[2]).compareTo((String) prev[2]) : ((Long) prev[0]).compareTo((Long) next[0]);
+            assertTrue("keys out of order at " + i, cmp <= 0);
+            if (prev[2].equals(next[2])) {
+                assertTrue("equal keys must keep arrival order", (Integer) prev[1] < (Integer) next[1]);
+            }
+        }
+    }
+    
+    private int countRuns() {
+        return tempDir.listFiles().length;
+    }
+    
+}
@@ -0,0 +1,138 @@
+/**
+ * Copyright (C) 2014 Kno.e.sis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knoesis.lucene.indexer;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import junit.framework.TestCase;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.FSDirectory;
+
+/**
+ * Tests key to docID and docID to key lookups written by 
+ * {@link KeyLookupWriter}.
+ */
+public class KeyLookupTest extends TestCase {
+    
+    private static final int NUM_DOCS = 5000;
+    private static final String FIELD = "PMID";
+    
+    private File indexDir;
+    private String[] docKeys;
+
+    @Override
+    protected void setUp() throws Exception {
+        indexDir = File.createTempFile("keylookup-test-", "");
+        indexDir.delete();
+        indexDir.mkdirs();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        File[] files = indexDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        indexDir.delete();
+    }
+    
+    public void testNumericKeys() throws Exception {
+        Map<String, Integer> keys = buildIndex("LONG", "");
+        KeyLookup lookup = KeyLookup.open(indexDir, FIELD);
+        try {
+            assertEquals(keys.size(), lookup.size());
+            assertLookups(lookup, keys);
+            for (Map.Entry<String, Integer> entry : keys.entrySet()) {
+                assertEquals(entry.getValue().intValue(), lookup.getDocId(Long.parseLong(entry.getKey())));
+            }
+            assertEquals(-1, lookup.getDocId(Long.MAX_VALUE));
+            assertEquals(-1, lookup.getDocId("not a number"));
+        } finally {
+            lookup.close();
+        }
+    }
+    
+    public void testStringKeys() throws Exception {
+        Map<String, Integer> keys = buildIndex("TEXT", "key-");
+        KeyLookup lookup = KeyLookup.open(indexDir, FIELD);
+        try {
+            assertEquals(keys.size(), lookup.size());
+            assertLookups(lookup, keys);
+            assertEquals(-1, lookup.getDocId("key-"));
+            assertEquals(-1, lookup.getDocId("zzz"));
+        } finally {
+            lookup.close();
+        }
+    }
+    
+    private void assertLookups(KeyLookup lookup, Map<String, Integer> keys) {
+        for (Map.Entry<String, Integer> entry : keys.entrySet()) {
+            assertEquals(entry.getKey(), entry.getValue().intValue(), lookup.getDocId(entry.getKey()));
+        }
+        for (int docId = 0; docId < NUM_DOCS; docId++) {
+            assertEquals("doc " + docId, docKeys[docId], lookup.getKey(docId));
+        }
+        assertNull(lookup.getKey(-1));
+        assertNull(lookup.getKey(NUM_DOCS));
+    }
+    
+    /**
+     * Indexes documents with random keys, some of them repeated and some 
+     * documents without a key, and writes the lookup. Returns the expected
+     * docID of each key, which is its last document, and records the key of
+     * each document in {@link #docKeys}.
+     */
+    private Map<String, Integer> buildIndex(String fieldType, String prefix) throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty(Constant.PROP_LUCENE_DIR, indexDir.getPath());
+        properties.setProperty(Constant.PROP_LUCENE_VERSION, "LUCENE_36");
+        properties.setProperty(Constant.PROP_DEFAULT_ANALYZER, "org.apache.lucene.analysis.KeywordAnalyzer");
+        properties.setProperty("luceneindexer.field." + FIELD + ".fieldtype", fieldType);
+        FieldDocFactory fields = new FieldDocFactory(FieldParams.parseProperties(properties));
+        
+        Map<String, Integer> keys = new HashMap<String, Integer>();
+        docKeys = new String[NUM_DOCS];
+        Random random = new Random(3);
+        IndexWriter writer = IndexWriterFactory.createIndexWriter(properties, fields, true);
+        for (int i = 0; i < NUM_DOCS; i++) {
+            Document doc = new Document();
+            if (i % 50 != 0) {
+                String key = prefix + (random.nextInt(2 * NUM_DOCS) - NUM_DOCS / 2);
+                doc.add(fields.createField(FIELD, key));
+                keys.put(key, i);
+                docKeys[i] = key;
+            }
+            writer.addDocument(doc);
+        }
+        writer.close();
+        
+        IndexReader reader = IndexReader.open(FSDirectory.open(indexDir));
+        try {
+            KeyLookupWriter.write(reader, FIELD, fields.getFieldType(FIELD), indexDir);
+        } finally {
+            reader.close();
+        }
+        return keys;
+    }
+}
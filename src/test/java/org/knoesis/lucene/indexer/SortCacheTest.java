@@ -0,0 +1,138 @@
+/**
+ * Copyright (C) 2014 Kno.e.sis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knoesis.lucene.indexer;
+
+import java.io.File;
+import java.util.Properties;
+import java.util.Random;
+import junit.framework.TestCase;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.FSDirectory;
+
+/**
+ * Tests that sorting with a {@link SortCache} orders documents as sorting 
+ * with the {@code FieldCache} does, on an index having several segments.
+ */
+public class SortCacheTest extends TestCase {
+    
+    private static final int NUM_DOCS = 20000;
+    private static final String FIELD = "DT";
+    
+    private File indexDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        indexDir = File.createTempFile("sortcache-test-", "");
+        indexDir.delete();
+        indexDir.mkdirs();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        File[] files = indexDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        indexDir.delete();
+    }
+    
+    public void testLongSort() throws Exception {
+        assertSameOrder("LONG", SortField.LONG);
+    }
+    
+    public void testIntSort() throws Exception {
+        assertSameOrder("INT", SortField.INT);
+    }
+    
+    public void testDoubleSort() throws Exception {
+        assertSameOrder("DOUBLE", SortField.DOUBLE);
+    }
+    
+    public void testStringSort() throws Exception {
+        assertSameOrder("TEXT", SortField.STRING);
+    }
+    
+    private void assertSameOrder(String fieldType, int sortType) throws Exception {
+        FieldDocFactory fields = buildIndex(fieldType);
+        IndexReader reader = IndexReader.open(FSDirectory.open(indexDir));
+        IndexSearcher searcher = new IndexSearcher(reader);
+        SortCacheComparatorSource source = new SortCacheComparatorSource(indexDir);
+        try {
+            assertTrue("expected several segments", reader.getSequentialSubReaders().length > 1);
+            IndexWarmer.writeSortCache(reader, FIELD, fields.getFieldType(FIELD), indexDir);
+            for (boolean reverse : new boolean[] { false, true }) {
+                TopDocs expected = searcher.search(new MatchAllDocsQuery(), null, NUM_DOCS, new Sort(new SortField(FIELD, sortType, reverse)));
+                TopDocs actual = searcher.search(new MatchAllDocsQuery(), null, NUM_DOCS, new Sort(source.newSortField(FIELD, reverse)));
+                assertEquals(expected.scoreDocs.length, actual.scoreDocs.length);
+                for (int i=0; i<expected.scoreDocs.length; i++) {
+                    Object expectedValue = ((FieldDoc) expected.scoreDocs[i]).fields[0];
+                    Object actualValue = ((FieldDoc) actual.scoreDocs[i]).fields[0];
+                    String message = fieldType + (reverse ? " reversed" : "") + " at " + i;
+                    if (expectedValue instanceof Number) {
+                        assertEquals(message, ((Number) expectedValue).doubleValue(), ((Number) actualValue).doubleValue(), 0);
+                    } else {
+                        assertEquals(message, expectedValue, actualValue);
+                    }
+                    assertEquals(message, expected.scoreDocs[i].doc, actual.scoreDocs[i].doc);
+                }
+            }
+        } finally {
+            source.close();
+            searcher.close();
+            reader.close();
+        }
+    }
+    
+    /**
+     * Indexes documents with random values (some repeated, and some documents
+     * without a value), committing regularly so the index has several 
+     * segments.
+     */
+    private FieldDocFactory buildIndex(String fieldType) throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty(Constant.PROP_LUCENE_DIR, indexDir.getPath());
+        properties.setProperty(Constant.PROP_LUCENE_VERSION, "LUCENE_36");
+        properties.setProperty(Constant.PROP_DEFAULT_ANALYZER, "org.apache.lucene.analysis.KeywordAnalyzer");
+        properties.setProperty(Constant.PROP_PREFIX_FIELD + FIELD + Constant.PROP_SUFFIX_FIELDTYPE, fieldType);
+        FieldDocFactory fields = new FieldDocFactory(FieldParams.parseProperties(properties));
+        
+        Random random = new Random(5);
+        IndexWriter writer = IndexWriterFactory.createIndexWriter(properties, fields, true);
+        for (int i=0; i<NUM_DOCS; i++) {
+            Document doc = new Document();
+            if (i % 50 != 0) {
+                doc.add(fields.createField(FIELD, String.valueOf(random.nextInt(NUM_DOCS) - NUM_DOCS / 4)));
+            }
+            writer.addDocument(doc);
+            if (i % 3000 == 2999) {
+                writer.commit();
+            }
+        }
+        writer.close();
+        return fields;
+    }
+}